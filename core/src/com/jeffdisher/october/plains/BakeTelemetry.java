@@ -0,0 +1,151 @@
+package com.jeffdisher.october.plains;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Collects the metrics of the layer baking pipeline in LayerManager, so we can see where time is going when terrain is
+ * slow to appear:  Waiting in the queue, waiting for a scratch buffer, baking, or waiting for its upload.
+ * The counters are updated from both the main thread and the background baking threads so they are all atomic.  A
+ * consistent view for an overlay or log is taken with LayerManager.getTelemetry().
+ */
+public class BakeTelemetry
+{
+	/**
+	 * The exclusive upper bound of each histogram bucket, in microseconds.  There is one more bucket than this, for
+	 * anything larger.
+	 */
+	public static final long[] BUCKET_LIMITS_MICROS = new long[] {
+			250L,
+			500L,
+			1000L,
+			2000L,
+			4000L,
+			8000L,
+			16000L,
+			32000L,
+			64000L,
+			128000L,
+	};
+
+	private final AtomicLongArray _bakeTimes;
+	private final AtomicLongArray _uploadLatencies;
+	private final AtomicLong _scratchStarvations;
+	private final AtomicLong _staleDiscards;
+	private final AtomicLong _uploads;
+
+	public BakeTelemetry()
+	{
+		_bakeTimes = new AtomicLongArray(BUCKET_LIMITS_MICROS.length + 1);
+		_uploadLatencies = new AtomicLongArray(BUCKET_LIMITS_MICROS.length + 1);
+		_scratchStarvations = new AtomicLong(0L);
+		_staleDiscards = new AtomicLong(0L);
+		_uploads = new AtomicLong(0L);
+	}
+
+	/**
+	 * Records the time taken to bake a single layer (called on the background threads).
+	 * 
+	 * @param nanos The time spent baking, in nanoseconds.
+	 */
+	public void recordBake(long nanos)
+	{
+		_bakeTimes.incrementAndGet(_bucket(nanos));
+	}
+
+	/**
+	 * Records the upload of a baked layer.
+	 * 
+	 * @param latencyNanos The time from the request being created until its upload, in nanoseconds.
+	 */
+	public void recordUpload(long latencyNanos)
+	{
+		_uploadLatencies.incrementAndGet(_bucket(latencyNanos));
+		_uploads.incrementAndGet();
+	}
+
+	/**
+	 * Records that a baking thread had a request it could have started but not enough free scratch buffers to do it.
+	 * This is only recorded once per blocked request, no matter how many times the baking threads check it.
+	 */
+	public void recordScratchStarvation()
+	{
+		_scratchStarvations.incrementAndGet();
+	}
+
+	/**
+	 * Records that the result of a request was discarded since it was stale (cancelled before baking or for a cuboid
+	 * which was since removed or replaced).
+	 */
+	public void recordStaleDiscard()
+	{
+		_staleDiscards.incrementAndGet();
+	}
+
+	/**
+	 * Creates a snapshot of the current counters, along with the given instantaneous values.
+	 * 
+	 * @param queueDepth The number of requests waiting to be baked.
+	 * @param pendingUploads The number of baked responses waiting for the main thread.
+	 * @param freeScratchBuffers The number of scratch buffers not currently in use.
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot(int queueDepth, int pendingUploads, int freeScratchBuffers)
+	{
+		return new Snapshot(queueDepth
+				, pendingUploads
+				, freeScratchBuffers
+				, _scratchStarvations.get()
+				, _staleDiscards.get()
+				, _uploads.get()
+				, _copy(_bakeTimes)
+				, _copy(_uploadLatencies)
+		);
+	}
+
+
+	private static int _bucket(long nanos)
+	{
+		long micros = nanos / 1000L;
+		int bucket = 0;
+		while ((bucket < BUCKET_LIMITS_MICROS.length) && (micros >= BUCKET_LIMITS_MICROS[bucket]))
+		{
+			bucket += 1;
+		}
+		return bucket;
+	}
+
+	private static long[] _copy(AtomicLongArray array)
+	{
+		long[] copy = new long[array.length()];
+		for (int i = 0; i < copy.length; ++i)
+		{
+			copy[i] = array.get(i);
+		}
+		return copy;
+	}
+
+
+	/**
+	 * A point-in-time view of the baking pipeline.
+	 * 
+	 * @param queueDepth The number of requests waiting to be baked.
+	 * @param pendingUploads The number of baked responses waiting for the main thread (only one is uploaded per frame).
+	 * @param freeScratchBuffers The number of scratch buffers not currently in use.
+	 * @param scratchStarvations The number of requests which had to wait for scratch buffers.
+	 * @param staleDiscards The number of requests whose results were discarded since they were stale.
+	 * @param uploads The number of requests uploaded to the GPU.
+	 * @param bakeTimeHistogram The count of layer bake times in each bucket of BUCKET_LIMITS_MICROS.
+	 * @param uploadLatencyHistogram The count of request-to-upload times in each bucket of BUCKET_LIMITS_MICROS.
+	 */
+	public static record Snapshot(int queueDepth
+			, int pendingUploads
+			, int freeScratchBuffers
+			, long scratchStarvations
+			, long staleDiscards
+			, long uploads
+			, long[] bakeTimeHistogram
+			, long[] uploadLatencyHistogram
+	) {}
+}
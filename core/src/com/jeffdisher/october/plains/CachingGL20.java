@@ -0,0 +1,1341 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.badlogic.gdx.graphics.GL20;
+
+
+/**
+ * A GL20 which passes every call through to the real one, but remembers the state most often set redundantly by the
+ * renderers (the program, the array and element buffers, the active texture unit, the 2D texture bound to each unit,
+ * the enabled vertex attributes, and the values of the uniforms set with glUniform{1,2,3,4}f and glUniform1i, per
+ * program), so that a call which wouldn't change any of that is dropped instead of reaching the driver.
+ * The other uniform setters are always passed through and just make us forget the locations they set.
+ * This only works if every call to the context goes through this wrapper, so OctoberPlains wraps the context once and
+ * everything else uses that.  Everything starts as unknown, so the first call of each kind is always passed through.
+ * Note that this must only be used on the main thread (since it calls GL).
+ */
+public class CachingGL20 implements GL20
+{
+	/**
+	 * The number of texture units and vertex attributes we track (anything beyond these is always passed through).
+	 */
+	public static final int TEXTURE_UNITS = 16;
+	public static final int VERTEX_ATTRIBUTES = 16;
+	// The value of any cached name we don't know (no buffer, texture, or program is ever this).
+	private static final int UNKNOWN = -1;
+	private static final byte ATTRIBUTE_UNKNOWN = 0;
+	private static final byte ATTRIBUTE_ENABLED = 1;
+	private static final byte ATTRIBUTE_DISABLED = 2;
+	// The kinds of uniform calls we cache (a location is only the same if set by the same kind of call).
+	private static final byte UNIFORM_1F = 1;
+	private static final byte UNIFORM_2F = 2;
+	private static final byte UNIFORM_3F = 3;
+	private static final byte UNIFORM_4F = 4;
+	private static final byte UNIFORM_1I = 5;
+
+	private final GL20 _gl;
+	private int _currentProgram;
+	private _ProgramUniforms _currentUniforms;
+	private final Map<Integer, _ProgramUniforms> _uniformsByProgram;
+	private int _boundArrayBuffer;
+	private int _boundElementBuffer;
+	private int _activeUnit;
+	private final int[] _boundTextures;
+	private final byte[] _attributeStates;
+	// The number of calls of the kinds we cache which were passed through or dropped.
+	private long _forwardedCalls;
+	private long _avoidedCalls;
+
+	public CachingGL20(GL20 gl)
+	{
+		_gl = gl;
+		_currentProgram = UNKNOWN;
+		_currentUniforms = null;
+		_uniformsByProgram = new HashMap<>();
+		_boundArrayBuffer = UNKNOWN;
+		_boundElementBuffer = UNKNOWN;
+		_activeUnit = UNKNOWN;
+		_boundTextures = new int[TEXTURE_UNITS];
+		Arrays.fill(_boundTextures, UNKNOWN);
+		_attributeStates = new byte[VERTEX_ATTRIBUTES];
+		Arrays.fill(_attributeStates, ATTRIBUTE_UNKNOWN);
+		_forwardedCalls = 0L;
+		_avoidedCalls = 0L;
+	}
+
+	/**
+	 * @return A snapshot of how many of the calls this caches were passed to the driver or dropped.
+	 */
+	public Counters getCounters()
+	{
+		return new Counters(_forwardedCalls, _avoidedCalls);
+	}
+
+	@Override
+	public void glActiveTexture(int texture)
+	{
+		int unit = texture - GL20.GL_TEXTURE0;
+		if ((_activeUnit != unit) || (UNKNOWN == _activeUnit))
+		{
+			_gl.glActiveTexture(texture);
+			_activeUnit = ((unit >= 0) && (unit < TEXTURE_UNITS)) ? unit : UNKNOWN;
+			_forwardedCalls += 1L;
+		}
+		else
+		{
+			_avoidedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture)
+	{
+		boolean isCached = (GL20.GL_TEXTURE_2D == target) && (UNKNOWN != _activeUnit);
+		if (isCached && (texture == _boundTextures[_activeUnit]))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glBindTexture(target, texture);
+			if (isCached)
+			{
+				_boundTextures[_activeUnit] = texture;
+			}
+			else if (GL20.GL_TEXTURE_2D == target)
+			{
+				// We don't know which unit this changed so we can't trust any of them.
+				Arrays.fill(_boundTextures, UNKNOWN);
+			}
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor)
+	{
+		_gl.glBlendFunc(sfactor, dfactor);
+	}
+
+	@Override
+	public void glClear(int mask)
+	{
+		_gl.glClear(mask);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha)
+	{
+		_gl.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClearDepthf(float depth)
+	{
+		_gl.glClearDepthf(depth);
+	}
+
+	@Override
+	public void glClearStencil(int s)
+	{
+		_gl.glClearStencil(s);
+	}
+
+	@Override
+	public void glColorMask(boolean red, boolean green, boolean blue, boolean alpha)
+	{
+		_gl.glColorMask(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data)
+	{
+		_gl.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize, data);
+	}
+
+	@Override
+	public void glCompressedTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int imageSize, Buffer data)
+	{
+		_gl.glCompressedTexSubImage2D(target, level, xoffset, yoffset, width, height, format, imageSize, data);
+	}
+
+	@Override
+	public void glCopyTexImage2D(int target, int level, int internalformat, int x, int y, int width, int height, int border)
+	{
+		_gl.glCopyTexImage2D(target, level, internalformat, x, y, width, height, border);
+	}
+
+	@Override
+	public void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height)
+	{
+		_gl.glCopyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+	}
+
+	@Override
+	public void glCullFace(int mode)
+	{
+		_gl.glCullFace(mode);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, IntBuffer textures)
+	{
+		for (int i = 0; i < n; ++i)
+		{
+			_forgetTexture(textures.get(textures.position() + i));
+		}
+		_gl.glDeleteTextures(n, textures);
+	}
+
+	@Override
+	public void glDeleteTexture(int texture)
+	{
+		_forgetTexture(texture);
+		_gl.glDeleteTexture(texture);
+	}
+
+	@Override
+	public void glDepthFunc(int func)
+	{
+		_gl.glDepthFunc(func);
+	}
+
+	@Override
+	public void glDepthMask(boolean flag)
+	{
+		_gl.glDepthMask(flag);
+	}
+
+	@Override
+	public void glDepthRangef(float zNear, float zFar)
+	{
+		_gl.glDepthRangef(zNear, zFar);
+	}
+
+	@Override
+	public void glDisable(int cap)
+	{
+		_gl.glDisable(cap);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count)
+	{
+		_gl.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, Buffer indices)
+	{
+		_gl.glDrawElements(mode, count, type, indices);
+	}
+
+	@Override
+	public void glEnable(int cap)
+	{
+		_gl.glEnable(cap);
+	}
+
+	@Override
+	public void glFinish()
+	{
+		_gl.glFinish();
+	}
+
+	@Override
+	public void glFlush()
+	{
+		_gl.glFlush();
+	}
+
+	@Override
+	public void glFrontFace(int mode)
+	{
+		_gl.glFrontFace(mode);
+	}
+
+	@Override
+	public void glGenTextures(int n, IntBuffer textures)
+	{
+		_gl.glGenTextures(n, textures);
+	}
+
+	@Override
+	public int glGenTexture()
+	{
+		return _gl.glGenTexture();
+	}
+
+	@Override
+	public int glGetError()
+	{
+		return _gl.glGetError();
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, IntBuffer params)
+	{
+		_gl.glGetIntegerv(pname, params);
+	}
+
+	@Override
+	public String glGetString(int name)
+	{
+		return _gl.glGetString(name);
+	}
+
+	@Override
+	public void glHint(int target, int mode)
+	{
+		_gl.glHint(target, mode);
+	}
+
+	@Override
+	public void glLineWidth(float width)
+	{
+		_gl.glLineWidth(width);
+	}
+
+	@Override
+	public void glPixelStorei(int pname, int param)
+	{
+		_gl.glPixelStorei(pname, param);
+	}
+
+	@Override
+	public void glPolygonOffset(float factor, float units)
+	{
+		_gl.glPolygonOffset(factor, units);
+	}
+
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels)
+	{
+		_gl.glReadPixels(x, y, width, height, format, type, pixels);
+	}
+
+	@Override
+	public void glScissor(int x, int y, int width, int height)
+	{
+		_gl.glScissor(x, y, width, height);
+	}
+
+	@Override
+	public void glStencilFunc(int func, int ref, int mask)
+	{
+		_gl.glStencilFunc(func, ref, mask);
+	}
+
+	@Override
+	public void glStencilMask(int mask)
+	{
+		_gl.glStencilMask(mask);
+	}
+
+	@Override
+	public void glStencilOp(int fail, int zfail, int zpass)
+	{
+		_gl.glStencilOp(fail, zfail, zpass);
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels)
+	{
+		_gl.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+	}
+
+	@Override
+	public void glTexParameterf(int target, int pname, float param)
+	{
+		_gl.glTexParameterf(target, pname, param);
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels)
+	{
+		_gl.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height)
+	{
+		_gl.glViewport(x, y, width, height);
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader)
+	{
+		_gl.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, String name)
+	{
+		_gl.glBindAttribLocation(program, index, name);
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer)
+	{
+		boolean isSame = ((GL20.GL_ARRAY_BUFFER == target) && (buffer == _boundArrayBuffer))
+				|| ((GL20.GL_ELEMENT_ARRAY_BUFFER == target) && (buffer == _boundElementBuffer))
+		;
+		if (isSame)
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glBindBuffer(target, buffer);
+			if (GL20.GL_ARRAY_BUFFER == target)
+			{
+				_boundArrayBuffer = buffer;
+			}
+			else if (GL20.GL_ELEMENT_ARRAY_BUFFER == target)
+			{
+				_boundElementBuffer = buffer;
+			}
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer)
+	{
+		_gl.glBindFramebuffer(target, framebuffer);
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer)
+	{
+		_gl.glBindRenderbuffer(target, renderbuffer);
+	}
+
+	@Override
+	public void glBlendColor(float red, float green, float blue, float alpha)
+	{
+		_gl.glBlendColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glBlendEquation(int mode)
+	{
+		_gl.glBlendEquation(mode);
+	}
+
+	@Override
+	public void glBlendEquationSeparate(int modeRGB, int modeAlpha)
+	{
+		_gl.glBlendEquationSeparate(modeRGB, modeAlpha);
+	}
+
+	@Override
+	public void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha)
+	{
+		_gl.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage)
+	{
+		_gl.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data)
+	{
+		_gl.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target)
+	{
+		return _gl.glCheckFramebufferStatus(target);
+	}
+
+	@Override
+	public void glCompileShader(int shader)
+	{
+		_gl.glCompileShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram()
+	{
+		// The name may be reused from a deleted program, so forget anything we cached for it.
+		int program = _gl.glCreateProgram();
+		_forgetUniforms(program);
+		return program;
+	}
+
+	@Override
+	public int glCreateShader(int type)
+	{
+		return _gl.glCreateShader(type);
+	}
+
+	@Override
+	public void glDeleteBuffer(int buffer)
+	{
+		_forgetBuffer(buffer);
+		_gl.glDeleteBuffer(buffer);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, IntBuffer buffers)
+	{
+		for (int i = 0; i < n; ++i)
+		{
+			_forgetBuffer(buffers.get(buffers.position() + i));
+		}
+		_gl.glDeleteBuffers(n, buffers);
+	}
+
+	@Override
+	public void glDeleteFramebuffer(int framebuffer)
+	{
+		_gl.glDeleteFramebuffer(framebuffer);
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, IntBuffer framebuffers)
+	{
+		_gl.glDeleteFramebuffers(n, framebuffers);
+	}
+
+	@Override
+	public void glDeleteProgram(int program)
+	{
+		_forgetUniforms(program);
+		_gl.glDeleteProgram(program);
+	}
+
+	@Override
+	public void glDeleteRenderbuffer(int renderbuffer)
+	{
+		_gl.glDeleteRenderbuffer(renderbuffer);
+	}
+
+	@Override
+	public void glDeleteRenderbuffers(int n, IntBuffer renderbuffers)
+	{
+		_gl.glDeleteRenderbuffers(n, renderbuffers);
+	}
+
+	@Override
+	public void glDeleteShader(int shader)
+	{
+		_gl.glDeleteShader(shader);
+	}
+
+	@Override
+	public void glDetachShader(int program, int shader)
+	{
+		_gl.glDetachShader(program, shader);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index)
+	{
+		if ((index < VERTEX_ATTRIBUTES) && (ATTRIBUTE_DISABLED == _attributeStates[index]))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glDisableVertexAttribArray(index);
+			if (index < VERTEX_ATTRIBUTES)
+			{
+				_attributeStates[index] = ATTRIBUTE_DISABLED;
+			}
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int indices)
+	{
+		_gl.glDrawElements(mode, count, type, indices);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index)
+	{
+		if ((index < VERTEX_ATTRIBUTES) && (ATTRIBUTE_ENABLED == _attributeStates[index]))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glEnableVertexAttribArray(index);
+			if (index < VERTEX_ATTRIBUTES)
+			{
+				_attributeStates[index] = ATTRIBUTE_ENABLED;
+			}
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer)
+	{
+		_gl.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level)
+	{
+		_gl.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+	}
+
+	@Override
+	public int glGenBuffer()
+	{
+		return _gl.glGenBuffer();
+	}
+
+	@Override
+	public void glGenBuffers(int n, IntBuffer buffers)
+	{
+		_gl.glGenBuffers(n, buffers);
+	}
+
+	@Override
+	public void glGenerateMipmap(int target)
+	{
+		_gl.glGenerateMipmap(target);
+	}
+
+	@Override
+	public int glGenFramebuffer()
+	{
+		return _gl.glGenFramebuffer();
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, IntBuffer framebuffers)
+	{
+		_gl.glGenFramebuffers(n, framebuffers);
+	}
+
+	@Override
+	public int glGenRenderbuffer()
+	{
+		return _gl.glGenRenderbuffer();
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, IntBuffer renderbuffers)
+	{
+		_gl.glGenRenderbuffers(n, renderbuffers);
+	}
+
+	@Override
+	public String glGetActiveAttrib(int program, int index, IntBuffer size, IntBuffer type)
+	{
+		return _gl.glGetActiveAttrib(program, index, size, type);
+	}
+
+	@Override
+	public String glGetActiveUniform(int program, int index, IntBuffer size, IntBuffer type)
+	{
+		return _gl.glGetActiveUniform(program, index, size, type);
+	}
+
+	@Override
+	public void glGetAttachedShaders(int program, int maxcount, Buffer count, IntBuffer shaders)
+	{
+		_gl.glGetAttachedShaders(program, maxcount, count, shaders);
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name)
+	{
+		return _gl.glGetAttribLocation(program, name);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, Buffer params)
+	{
+		_gl.glGetBooleanv(pname, params);
+	}
+
+	@Override
+	public void glGetBufferParameteriv(int target, int pname, IntBuffer params)
+	{
+		_gl.glGetBufferParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glGetFloatv(int pname, FloatBuffer params)
+	{
+		_gl.glGetFloatv(pname, params);
+	}
+
+	@Override
+	public void glGetFramebufferAttachmentParameteriv(int target, int attachment, int pname, IntBuffer params)
+	{
+		_gl.glGetFramebufferAttachmentParameteriv(target, attachment, pname, params);
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, IntBuffer params)
+	{
+		_gl.glGetProgramiv(program, pname, params);
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program)
+	{
+		return _gl.glGetProgramInfoLog(program);
+	}
+
+	@Override
+	public void glGetRenderbufferParameteriv(int target, int pname, IntBuffer params)
+	{
+		_gl.glGetRenderbufferParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, IntBuffer params)
+	{
+		_gl.glGetShaderiv(shader, pname, params);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader)
+	{
+		return _gl.glGetShaderInfoLog(shader);
+	}
+
+	@Override
+	public void glGetShaderPrecisionFormat(int shadertype, int precisiontype, IntBuffer range, IntBuffer precision)
+	{
+		_gl.glGetShaderPrecisionFormat(shadertype, precisiontype, range, precision);
+	}
+
+	@Override
+	public void glGetTexParameterfv(int target, int pname, FloatBuffer params)
+	{
+		_gl.glGetTexParameterfv(target, pname, params);
+	}
+
+	@Override
+	public void glGetTexParameteriv(int target, int pname, IntBuffer params)
+	{
+		_gl.glGetTexParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glGetUniformfv(int program, int location, FloatBuffer params)
+	{
+		_gl.glGetUniformfv(program, location, params);
+	}
+
+	@Override
+	public void glGetUniformiv(int program, int location, IntBuffer params)
+	{
+		_gl.glGetUniformiv(program, location, params);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name)
+	{
+		return _gl.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glGetVertexAttribfv(int index, int pname, FloatBuffer params)
+	{
+		_gl.glGetVertexAttribfv(index, pname, params);
+	}
+
+	@Override
+	public void glGetVertexAttribiv(int index, int pname, IntBuffer params)
+	{
+		_gl.glGetVertexAttribiv(index, pname, params);
+	}
+
+	@Override
+	public void glGetVertexAttribPointerv(int index, int pname, Buffer pointer)
+	{
+		_gl.glGetVertexAttribPointerv(index, pname, pointer);
+	}
+
+	@Override
+	public boolean glIsBuffer(int buffer)
+	{
+		return _gl.glIsBuffer(buffer);
+	}
+
+	@Override
+	public boolean glIsEnabled(int cap)
+	{
+		return _gl.glIsEnabled(cap);
+	}
+
+	@Override
+	public boolean glIsFramebuffer(int framebuffer)
+	{
+		return _gl.glIsFramebuffer(framebuffer);
+	}
+
+	@Override
+	public boolean glIsProgram(int program)
+	{
+		return _gl.glIsProgram(program);
+	}
+
+	@Override
+	public boolean glIsRenderbuffer(int renderbuffer)
+	{
+		return _gl.glIsRenderbuffer(renderbuffer);
+	}
+
+	@Override
+	public boolean glIsShader(int shader)
+	{
+		return _gl.glIsShader(shader);
+	}
+
+	@Override
+	public boolean glIsTexture(int texture)
+	{
+		return _gl.glIsTexture(texture);
+	}
+
+	@Override
+	public void glLinkProgram(int program)
+	{
+		// Linking resets the uniforms to their defaults.
+		_forgetUniforms(program);
+		_gl.glLinkProgram(program);
+	}
+
+	@Override
+	public void glReleaseShaderCompiler()
+	{
+		_gl.glReleaseShaderCompiler();
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat, int width, int height)
+	{
+		_gl.glRenderbufferStorage(target, internalformat, width, height);
+	}
+
+	@Override
+	public void glSampleCoverage(float value, boolean invert)
+	{
+		_gl.glSampleCoverage(value, invert);
+	}
+
+	@Override
+	public void glShaderBinary(int n, IntBuffer shaders, int binaryformat, Buffer binary, int length)
+	{
+		_gl.glShaderBinary(n, shaders, binaryformat, binary, length);
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string)
+	{
+		_gl.glShaderSource(shader, string);
+	}
+
+	@Override
+	public void glStencilFuncSeparate(int face, int func, int ref, int mask)
+	{
+		_gl.glStencilFuncSeparate(face, func, ref, mask);
+	}
+
+	@Override
+	public void glStencilMaskSeparate(int face, int mask)
+	{
+		_gl.glStencilMaskSeparate(face, mask);
+	}
+
+	@Override
+	public void glStencilOpSeparate(int face, int fail, int zfail, int zpass)
+	{
+		_gl.glStencilOpSeparate(face, fail, zfail, zpass);
+	}
+
+	@Override
+	public void glTexParameterfv(int target, int pname, FloatBuffer params)
+	{
+		_gl.glTexParameterfv(target, pname, params);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param)
+	{
+		_gl.glTexParameteri(target, pname, param);
+	}
+
+	@Override
+	public void glTexParameteriv(int target, int pname, IntBuffer params)
+	{
+		_gl.glTexParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glUniform1f(int location, float x)
+	{
+		if (_isUniformSame(location, UNIFORM_1F, Float.floatToRawIntBits(x), 0, 0, 0))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUniform1f(location, x);
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glUniform1fv(int location, int count, FloatBuffer v)
+	{
+		_gl.glUniform1fv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform1fv(int location, int count, float[] v, int offset)
+	{
+		_gl.glUniform1fv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x)
+	{
+		if (_isUniformSame(location, UNIFORM_1I, x, 0, 0, 0))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUniform1i(location, x);
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glUniform1iv(int location, int count, IntBuffer v)
+	{
+		_gl.glUniform1iv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform1iv(int location, int count, int[] v, int offset)
+	{
+		_gl.glUniform1iv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform2f(int location, float x, float y)
+	{
+		if (_isUniformSame(location, UNIFORM_2F, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), 0, 0))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUniform2f(location, x, y);
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, FloatBuffer v)
+	{
+		_gl.glUniform2fv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, float[] v, int offset)
+	{
+		_gl.glUniform2fv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform2i(int location, int x, int y)
+	{
+		_gl.glUniform2i(location, x, y);
+		_forgetUniform(location, 1);
+	}
+
+	@Override
+	public void glUniform2iv(int location, int count, IntBuffer v)
+	{
+		_gl.glUniform2iv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform2iv(int location, int count, int[] v, int offset)
+	{
+		_gl.glUniform2iv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z)
+	{
+		if (_isUniformSame(location, UNIFORM_3F, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), 0))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUniform3f(location, x, y, z);
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, FloatBuffer v)
+	{
+		_gl.glUniform3fv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset)
+	{
+		_gl.glUniform3fv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform3i(int location, int x, int y, int z)
+	{
+		_gl.glUniform3i(location, x, y, z);
+		_forgetUniform(location, 1);
+	}
+
+	@Override
+	public void glUniform3iv(int location, int count, IntBuffer v)
+	{
+		_gl.glUniform3iv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform3iv(int location, int count, int[] v, int offset)
+	{
+		_gl.glUniform3iv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform4f(int location, float x, float y, float z, float w)
+	{
+		if (_isUniformSame(location, UNIFORM_4F, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), Float.floatToRawIntBits(w)))
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUniform4f(location, x, y, z, w);
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, FloatBuffer v)
+	{
+		_gl.glUniform4fv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset)
+	{
+		_gl.glUniform4fv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform4i(int location, int x, int y, int z, int w)
+	{
+		_gl.glUniform4i(location, x, y, z, w);
+		_forgetUniform(location, 1);
+	}
+
+	@Override
+	public void glUniform4iv(int location, int count, IntBuffer v)
+	{
+		_gl.glUniform4iv(location, count, v);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniform4iv(int location, int count, int[] v, int offset)
+	{
+		_gl.glUniform4iv(location, count, v, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix2fv(int location, int count, boolean transpose, FloatBuffer value)
+	{
+		_gl.glUniformMatrix2fv(location, count, transpose, value);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value, int offset)
+	{
+		_gl.glUniformMatrix2fv(location, count, transpose, value, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose, FloatBuffer value)
+	{
+		_gl.glUniformMatrix3fv(location, count, transpose, value);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset)
+	{
+		_gl.glUniformMatrix3fv(location, count, transpose, value, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, FloatBuffer value)
+	{
+		_gl.glUniformMatrix4fv(location, count, transpose, value);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset)
+	{
+		_gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+		_forgetUniform(location, count);
+	}
+
+	@Override
+	public void glUseProgram(int program)
+	{
+		if (program == _currentProgram)
+		{
+			_avoidedCalls += 1L;
+		}
+		else
+		{
+			_gl.glUseProgram(program);
+			_currentProgram = program;
+			_currentUniforms = (0 != program)
+					? _uniformsByProgram.computeIfAbsent(program, (Integer ignored) -> new _ProgramUniforms())
+					: null
+			;
+			_forwardedCalls += 1L;
+		}
+	}
+
+	@Override
+	public void glValidateProgram(int program)
+	{
+		_gl.glValidateProgram(program);
+	}
+
+	@Override
+	public void glVertexAttrib1f(int indx, float x)
+	{
+		_gl.glVertexAttrib1f(indx, x);
+	}
+
+	@Override
+	public void glVertexAttrib1fv(int indx, FloatBuffer values)
+	{
+		_gl.glVertexAttrib1fv(indx, values);
+	}
+
+	@Override
+	public void glVertexAttrib2f(int indx, float x, float y)
+	{
+		_gl.glVertexAttrib2f(indx, x, y);
+	}
+
+	@Override
+	public void glVertexAttrib2fv(int indx, FloatBuffer values)
+	{
+		_gl.glVertexAttrib2fv(indx, values);
+	}
+
+	@Override
+	public void glVertexAttrib3f(int indx, float x, float y, float z)
+	{
+		_gl.glVertexAttrib3f(indx, x, y, z);
+	}
+
+	@Override
+	public void glVertexAttrib3fv(int indx, FloatBuffer values)
+	{
+		_gl.glVertexAttrib3fv(indx, values);
+	}
+
+	@Override
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w)
+	{
+		_gl.glVertexAttrib4f(indx, x, y, z, w);
+	}
+
+	@Override
+	public void glVertexAttrib4fv(int indx, FloatBuffer values)
+	{
+		_gl.glVertexAttrib4fv(indx, values);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr)
+	{
+		_gl.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int ptr)
+	{
+		_gl.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+	}
+
+
+	private void _forgetTexture(int texture)
+	{
+		// Deleting a bound texture reverts that unit to texture 0.
+		for (int i = 0; i < TEXTURE_UNITS; ++i)
+		{
+			if (texture == _boundTextures[i])
+			{
+				_boundTextures[i] = 0;
+			}
+		}
+	}
+
+	private void _forgetBuffer(int buffer)
+	{
+		// Deleting a bound buffer reverts that binding to buffer 0.
+		if (buffer == _boundArrayBuffer)
+		{
+			_boundArrayBuffer = 0;
+		}
+		if (buffer == _boundElementBuffer)
+		{
+			_boundElementBuffer = 0;
+		}
+	}
+
+	private void _forgetUniforms(int program)
+	{
+		_uniformsByProgram.remove(program);
+		if (program == _currentProgram)
+		{
+			_currentUniforms = new _ProgramUniforms();
+			_uniformsByProgram.put(program, _currentUniforms);
+		}
+	}
+
+	private void _forgetUniform(int location, int count)
+	{
+		if ((null != _currentUniforms) && (location >= 0))
+		{
+			// An array can span several locations, which need not be consecutive, so we forget the whole program then.
+			if (1 == count)
+			{
+				_currentUniforms.forget(location);
+			}
+			else
+			{
+				_currentUniforms.forgetAll();
+			}
+		}
+	}
+
+	private boolean _isUniformSame(int location, byte kind, int x, int y, int z, int w)
+	{
+		// (location -1 is ignored by GL, so we don't need to cache it)
+		return (null != _currentUniforms) && (location >= 0) && _currentUniforms.isSame(location, kind, x, y, z, w);
+	}
+
+
+	/**
+	 * The counters of the calls of the kinds this caches.
+	 * 
+	 * @param forwardedCalls The number of calls which were passed to the driver.
+	 * @param avoidedCalls The number of calls which were dropped since they wouldn't change anything.
+	 */
+	public static record Counters(long forwardedCalls
+			, long avoidedCalls
+	) {}
+
+
+	private static class _ProgramUniforms
+	{
+		// The kind of call which last set each location (0 if unknown) and its values (as raw bits, 4 per location).
+		private byte[] _kinds = new byte[16];
+		private int[] _values = new int[4 * 16];
+		
+		/**
+		 * Checks if the given location already has the given values, storing them if not.
+		 */
+		public boolean isSame(int location, byte kind, int x, int y, int z, int w)
+		{
+			if (location >= _kinds.length)
+			{
+				int capacity = Math.max(location + 1, 2 * _kinds.length);
+				_kinds = Arrays.copyOf(_kinds, capacity);
+				_values = Arrays.copyOf(_values, 4 * capacity);
+			}
+			int base = 4 * location;
+			boolean isSame = (kind == _kinds[location])
+					&& (x == _values[base])
+					&& (y == _values[base + 1])
+					&& (z == _values[base + 2])
+					&& (w == _values[base + 3])
+			;
+			if (!isSame)
+			{
+				_kinds[location] = kind;
+				_values[base] = x;
+				_values[base + 1] = y;
+				_values[base + 2] = z;
+				_values[base + 3] = w;
+			}
+			return isSame;
+		}
+		
+		/**
+		 * Forgets the value of the given location, so that the next cached call to set it is passed through.
+		 */
+		public void forget(int location)
+		{
+			if (location < _kinds.length)
+			{
+				_kinds[location] = 0;
+			}
+		}
+		
+		/**
+		 * Forgets the values of every location.
+		 */
+		public void forgetAll()
+		{
+			Arrays.fill(_kinds, (byte)0);
+		}
+	}
+}
@@ -631,13 +631,13 @@ public class ClientLogic
 		{
 			_cuboids.put(cuboid.getCuboidAddress(), cuboid);
 			Assert.assertTrue(!changedBlocks.isEmpty());
-			_changedCuboidConsumer.acceptCuboid(cuboid, heightMap, changedBlocks);
+			_changedCuboidConsumer.acceptCuboid(cuboid, heightMap, changedBlocks, changedAspects);
 		}
 		@Override
 		public void cuboidDidLoad(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap)
 		{
 			_cuboids.put(cuboid.getCuboidAddress(), cuboid);
-			_changedCuboidConsumer.acceptCuboid(cuboid, heightMap, null);
+			_changedCuboidConsumer.acceptCuboid(cuboid, heightMap, null, null);
 		}
 		@Override
 		public void cuboidDidUnload(CuboidAddress address)
@@ -713,7 +713,7 @@ public class ClientLogic
 
 	public static interface ICuboidUpdateConsumer
 	{
-		// Note that changedBlocks is null if this is the first load of the cuboid.
-		void acceptCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks);
+		// Note that changedBlocks and changedAspects are null if this is the first load of the cuboid.
+		void acceptCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks, Set<Aspect<?, ?>> changedAspects);
 	}
 }
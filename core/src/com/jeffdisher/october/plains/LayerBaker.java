@@ -0,0 +1,467 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.jeffdisher.october.aspects.AspectRegistry;
+import com.jeffdisher.october.aspects.Environment;
+import com.jeffdisher.october.data.IReadOnlyCuboidData;
+import com.jeffdisher.october.types.Block;
+import com.jeffdisher.october.types.BlockAddress;
+import com.jeffdisher.october.types.Inventory;
+import com.jeffdisher.october.types.Item;
+import com.jeffdisher.october.utils.Assert;
+
+
+/**
+ * Fills the rows of a baked layer from cuboid data.  This is called concurrently by all the background baking threads:
+ * Everything it looks up in the loop (block addresses and atlas coordinates) is built once, up-front, and never changes,
+ * so that baking a layer doesn't allocate anything on the heap (other than the rare transient tiles).  Its only mutable
+ * state is the scratch array used to merge quads, which is a ThreadLocal so that each baking thread has its own.
+ * In the MERGED_MESH format, runs of identical tiles are greedily merged into rectangular quads (and air isn't drawn at
+ * all), so a layer of uniform terrain is a handful of quads instead of 1024 tiles.
+ * It also reports when the rows it baked are uniform (the same block, with no aux texture) so that LayerManager can
+ * share one GPU buffer between all the layers with the same signature.
+ * Note that light is not baked:  It is looked up by the shaders in a separate light texture (see LightPlane), so a
+ * layer only depends on the blocks and inventories of its own cuboid.
+ * Finally, it records which tiles are opaque (a solid block with a fully opaque texture and no aux texture) so that
+ * RenderSupport can skip drawing the tiles of the layer below which they cover.
+ * Note that the transient aux textures (crafting activity and damage) are not baked into the layer, since they change
+ * too often:  The tiles showing them are reported separately and drawn as an overlay (see TransientOverlay).
+ */
+public class LayerBaker
+{
+	/**
+	 * The value bakeRows() returns when the rows it baked are not all the same.
+	 */
+	public static final int NOT_UNIFORM = -1;
+
+	private static final int EDGE = LayerManager.CUBOID_EDGE_TILE_COUNT;
+	// Marks a tile already covered by a merged quad (a tile key is never negative).
+	private static final int MERGED_KEY = -1;
+	// Every block address in a cuboid, indexed by _addressIndex().
+	private static final BlockAddress[] ADDRESSES = _buildAddressTable();
+
+	private final Environment _environment;
+	private final LayerManager.LayerFormat _format;
+	// The atlas coordinates of each corner of each texture, as normalized unsigned shorts, indexed by item number or aux ordinal.
+	private final short[] _tileLeft;
+	private final short[] _tileRight;
+	private final short[] _tileTop;
+	private final short[] _tileBottom;
+	private final short[] _auxLeft;
+	private final short[] _auxRight;
+	private final short[] _auxTop;
+	private final short[] _auxBottom;
+	// Whether a tile of each item number, without an aux texture, hides everything below it.
+	private final boolean[] _opaqueItems;
+	// The tile key (see _tileKey()) of air without an aux texture, which the MERGED_MESH format doesn't draw.
+	private final int _airKey;
+	// The tile keys of the layer being merged, by _tileIndex() (each baking thread has its own).
+	private final ThreadLocal<int[]> _tileKeys;
+
+	public LayerBaker(Environment environment, TextureAtlas textureAtlas, LayerManager.LayerFormat format)
+	{
+		_environment = environment;
+		_format = format;
+		
+		float[] tileTable = textureAtlas.tileTextureBaseTable;
+		int tileCount = tileTable.length / 2;
+		_tileLeft = new short[tileCount];
+		_tileRight = new short[tileCount];
+		_tileTop = new short[tileCount];
+		_tileBottom = new short[tileCount];
+		_fillCornerTables(tileTable, textureAtlas.tileCoordinateSize, _tileLeft, _tileRight, _tileTop, _tileBottom);
+		
+		float[] auxTable = textureAtlas.auxTextureBaseTable;
+		int auxCount = auxTable.length / 2;
+		_auxLeft = new short[auxCount];
+		_auxRight = new short[auxCount];
+		_auxTop = new short[auxCount];
+		_auxBottom = new short[auxCount];
+		_fillCornerTables(auxTable, textureAtlas.auxCoordinateSize, _auxLeft, _auxRight, _auxTop, _auxBottom);
+		
+		Item[] items = environment.items.ITEMS_BY_TYPE;
+		_opaqueItems = new boolean[items.length];
+		for (int i = 0; i < items.length; ++i)
+		{
+			// (not every item is a block but those never appear in the world so they are never opaque).
+			Block block = environment.blocks.fromItem(items[i]);
+			_opaqueItems[i] = (null != block) && environment.blocks.isSolid(block) && textureAtlas.tileTextureOpaque[i];
+		}
+		_airKey = _tileKey(environment.special.AIR.item().number(), TextureAtlas.Auxiliary.NONE.ordinal());
+		_tileKeys = ThreadLocal.withInitial(() -> new int[EDGE * EDGE]);
+	}
+
+	/**
+	 * Bakes the given rows of one layer of a cuboid into the buffer, writing them at the same offset they have in the
+	 * full layer.
+	 * In the MERGED_MESH format, the whole layer must be baked and its merged quads are packed from the start of the
+	 * buffer, which is left positioned after the last one.
+	 * 
+	 * @param cuboid The cuboid containing the layer.
+	 * @param zLayer The z-level of the layer within the cuboid.
+	 * @param firstRow The first row to bake.
+	 * @param lastRow The last row to bake (inclusive).
+	 * @param bufferToFill The buffer to fill, large enough for the entire layer (in its worst case).
+	 * @param opaqueRows Populated with a bit mask of the opaque tiles in each baked row (bit x of element y).
+	 * @param transientTiles Populated with the addresses of the baked tiles which need a transient aux texture drawn over
+	 * them.
+	 * @return The uniform signature shared by every baked tile (see uniformItem()) or NOT_UNIFORM if they differ.
+	 */
+	public int bakeRows(IReadOnlyCuboidData cuboid
+			, byte zLayer
+			, byte firstRow
+			, byte lastRow
+			, ByteBuffer bufferToFill
+			, int[] opaqueRows
+			, List<BlockAddress> transientTiles
+	)
+	{
+		boolean isMerged = (LayerManager.LayerFormat.MERGED_MESH == _format);
+		Assert.assertTrue(!isMerged || ((0 == firstRow) && ((EDGE - 1) == lastRow)));
+		int[] tileKeys = isMerged ? _tileKeys.get() : null;
+		int rowBytes = (LayerManager.LayerFormat.DATA_TEXTURE == _format)
+				? LayerManager.SINGLE_LAYER_DATA_ROW_BYTES
+				: LayerManager.SINGLE_LAYER_ROW_BUFFER_BYTES
+		;
+		((java.nio.Buffer) bufferToFill).position(isMerged ? 0 : (firstRow * rowBytes));
+		// Track whether every tile bakes to the same data (only the first tile's signature can be NOT_UNIFORM).
+		int uniformSignature = 0;
+		boolean isFirstTile = true;
+		for (int y = firstRow; y <= lastRow; ++y)
+		{
+			int opaqueRow = 0;
+			for (int x = 0; x < EDGE; ++x)
+			{
+				BlockAddress blockAddress = ADDRESSES[_addressIndex(x, y, zLayer)];
+				// We read the aspects directly, instead of through a BlockProxy, to avoid allocating one per tile.
+				short itemNumber = cuboid.getData15(AspectRegistry.BLOCK, blockAddress);
+				Block block = _environment.blocks.fromItem(_environment.items.ITEMS_BY_TYPE[itemNumber]);
+				
+				// Handle the secondary texture to blend in (only debris is baked - see transientAux()).
+				TextureAtlas.Auxiliary aux = _hasDebrisInventory(cuboid, blockAddress, block)
+						? TextureAtlas.Auxiliary.DEBRIS
+						: TextureAtlas.Auxiliary.NONE
+				;
+				
+				if (null != transientAux(cuboid, blockAddress, block))
+				{
+					transientTiles.add(blockAddress);
+				}
+				
+				// Any aux texture makes the layer non-uniform since it is almost always a single tile.
+				int tileSignature = (TextureAtlas.Auxiliary.NONE == aux)
+						? _signature(itemNumber)
+						: NOT_UNIFORM
+				;
+				if (isFirstTile)
+				{
+					uniformSignature = tileSignature;
+					isFirstTile = false;
+				}
+				else if (tileSignature != uniformSignature)
+				{
+					uniformSignature = NOT_UNIFORM;
+				}
+				
+				// Any aux texture is blended in by its alpha, which would let the tile below show through.
+				if ((TextureAtlas.Auxiliary.NONE == aux) && _opaqueItems[itemNumber])
+				{
+					opaqueRow |= (1 << x);
+				}
+				
+				int auxIndex = aux.ordinal();
+				if (isMerged)
+				{
+					// The quads are only emitted once we know every tile, below.
+					tileKeys[_tileIndex(x, y)] = _tileKey(itemNumber, auxIndex);
+				}
+				else if (LayerManager.LayerFormat.DATA_TEXTURE == _format)
+				{
+					// The fragment shader resolves the atlas coordinates from the indices (the atlas has at most 256 textures).
+					bufferToFill.put((byte)itemNumber);
+					bufferToFill.put((byte)auxIndex);
+				}
+				else
+				{
+					// This order must match the position mesh in RenderSupport._defineLayerMeshBuffer.
+					// NOTE:  We invert the textures here (probably not ideal).
+					// Bottom-left.
+					_putVertex(bufferToFill, _tileLeft[itemNumber], _tileBottom[itemNumber], _auxLeft[auxIndex], _auxBottom[auxIndex]);
+					// Bottom-right.
+					_putVertex(bufferToFill, _tileRight[itemNumber], _tileBottom[itemNumber], _auxRight[auxIndex], _auxBottom[auxIndex]);
+					// Top-right.
+					_putVertex(bufferToFill, _tileRight[itemNumber], _tileTop[itemNumber], _auxRight[auxIndex], _auxTop[auxIndex]);
+					// Top-left.
+					_putVertex(bufferToFill, _tileLeft[itemNumber], _tileTop[itemNumber], _auxLeft[auxIndex], _auxTop[auxIndex]);
+				}
+			}
+			opaqueRows[y] = opaqueRow;
+		}
+		if (isMerged)
+		{
+			_emitMergedQuads(tileKeys, bufferToFill);
+		}
+		return uniformSignature;
+	}
+
+
+	/**
+	 * Checks if a block would bake to the same tile in both versions of a cuboid:  The same block type and whether or
+	 * not it shows debris (the contents of the inventory don't matter).  Note that light isn't baked (see LightPlane).
+	 * 
+	 * @param oldCuboid The previous version of the cuboid.
+	 * @param newCuboid The new version of the cuboid.
+	 * @param blockAddress The address of the block within the cuboid.
+	 * @return True if a baked layer doesn't need to change for this block (it may still have a new transient aux).
+	 */
+	public boolean isSameBakedState(IReadOnlyCuboidData oldCuboid, IReadOnlyCuboidData newCuboid, BlockAddress blockAddress)
+	{
+		short itemNumber = newCuboid.getData15(AspectRegistry.BLOCK, blockAddress);
+		boolean isSame = (oldCuboid.getData15(AspectRegistry.BLOCK, blockAddress) == itemNumber);
+		// Inventories are immutable so an unchanged inventory is the same instance and we can skip checking for debris.
+		if (isSame && (oldCuboid.getDataSpecial(AspectRegistry.INVENTORY, blockAddress) != newCuboid.getDataSpecial(AspectRegistry.INVENTORY, blockAddress)))
+		{
+			Block block = _environment.blocks.fromItem(_environment.items.ITEMS_BY_TYPE[itemNumber]);
+			isSame = (_hasDebrisInventory(oldCuboid, blockAddress, block) == _hasDebrisInventory(newCuboid, blockAddress, block));
+		}
+		return isSame;
+	}
+
+	/**
+	 * Finds the transient aux texture of a block, looking up its block type.
+	 * 
+	 * @param cuboid The cuboid containing the block.
+	 * @param blockAddress The address of the block within the cuboid.
+	 * @return The aux texture to draw over the tile or null if it has none.
+	 */
+	public TextureAtlas.Auxiliary transientAux(IReadOnlyCuboidData cuboid, BlockAddress blockAddress)
+	{
+		short itemNumber = cuboid.getData15(AspectRegistry.BLOCK, blockAddress);
+		Block block = _environment.blocks.fromItem(_environment.items.ITEMS_BY_TYPE[itemNumber]);
+		return transientAux(cuboid, blockAddress, block);
+	}
+
+	/**
+	 * Finds the transient aux texture of a block:  A crafting station which is active or a block which is damaged.  These
+	 * change every time a block is hit or a crafting operation progresses so they are drawn over the baked tile, instead
+	 * of baked into it.
+	 * 
+	 * @param cuboid The cuboid containing the block.
+	 * @param blockAddress The address of the block within the cuboid.
+	 * @param block The block type at that address.
+	 * @return The aux texture to draw over the tile or null if it has none.
+	 */
+	public TextureAtlas.Auxiliary transientAux(IReadOnlyCuboidData cuboid, BlockAddress blockAddress, Block block)
+	{
+		// Crafting is shown in favour of damage since it is ongoing.
+		TextureAtlas.Auxiliary aux = null;
+		short damage = cuboid.getData15(AspectRegistry.DAMAGE, blockAddress);
+		if (null != cuboid.getDataSpecial(AspectRegistry.CRAFTING, blockAddress))
+		{
+			aux = TextureAtlas.Auxiliary.ACTIVE_STATION;
+		}
+		else if (damage > 0)
+		{
+			// We will favour showing cracks at a low damage, so the feedback is obvious
+			float damaged = (float) damage / (float)_environment.damage.getToughness(block);
+			if (damaged > 0.6f)
+			{
+				aux = TextureAtlas.Auxiliary.BREAK_HEAVY;
+			}
+			else if (damaged > 0.3f)
+			{
+				aux = TextureAtlas.Auxiliary.BREAK_MEDIUM;
+			}
+			else
+			{
+				aux = TextureAtlas.Auxiliary.BREAK_LIGHT;
+			}
+		}
+		return aux;
+	}
+
+	/**
+	 * Returns the shared instance of a block address, so that the bake loops don't need to allocate them.
+	 * 
+	 * @param x The x coordinate (0-31).
+	 * @param y The y coordinate (0-31).
+	 * @param z The z coordinate (0-31).
+	 * @return The block address.
+	 */
+	public static BlockAddress getAddress(int x, int y, int z)
+	{
+		return ADDRESSES[_addressIndex(x, y, z)];
+	}
+
+
+	/**
+	 * Returns the item number of every tile in a layer which baked to the given uniform signature.
+	 * 
+	 * @param signature A signature returned by bakeRows() (must not be NOT_UNIFORM).
+	 * @return The item number.
+	 */
+	public static short uniformItem(int signature)
+	{
+		Assert.assertTrue(NOT_UNIFORM != signature);
+		return (short)(signature & 0xFFFF);
+	}
+
+
+	private boolean _hasDebrisInventory(IReadOnlyCuboidData cuboid, BlockAddress blockAddress, Block block)
+	{
+		// Only blocks which can be walked through show their inventory, as debris, so we don't even read the inventory of
+		// a solid block (most of the tiles of a buried layer).
+		boolean hasDebris = false;
+		if (!_environment.blocks.isSolid(block))
+		{
+			Inventory blockInventory = cuboid.getDataSpecial(AspectRegistry.INVENTORY, blockAddress);
+			// (we only fall back to sortedKeys(), which allocates, in the unusual case of an inventory with no encumbrance).
+			hasDebris = (null != blockInventory)
+					&& ((blockInventory.currentEncumbrance > 0) || !blockInventory.sortedKeys().isEmpty())
+			;
+		}
+		return hasDebris;
+	}
+
+	private void _emitMergedQuads(int[] tileKeys, ByteBuffer bufferToFill)
+	{
+		// Greedy meshing:  Starting from each tile not yet covered, we extend the quad as far right as the tiles match
+		// and then as far up as every tile in that span matches.
+		for (int y = 0; y < EDGE; ++y)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				int key = tileKeys[_tileIndex(x, y)];
+				if (MERGED_KEY != key)
+				{
+					int width = 1;
+					while (((x + width) < EDGE) && (key == tileKeys[_tileIndex(x + width, y)]))
+					{
+						width += 1;
+					}
+					int height = 1;
+					while (((y + height) < EDGE) && _isRunMatching(tileKeys, key, x, y + height, width))
+					{
+						height += 1;
+					}
+					for (int row = y; row < (y + height); ++row)
+					{
+						for (int column = x; column < (x + width); ++column)
+						{
+							tileKeys[_tileIndex(column, row)] = MERGED_KEY;
+						}
+					}
+					// Air has nothing to draw (the layer below shows through it either way).
+					if (_airKey != key)
+					{
+						_putMergedQuad(bufferToFill, x, y, width, height, key & 0xFFFF, key >>> 16);
+					}
+				}
+			}
+		}
+	}
+
+	private void _putMergedQuad(ByteBuffer buffer, int x, int y, int width, int height, int itemNumber, int auxIndex)
+	{
+		// Every corner has the top-left of its textures since the fragment shader tiles them across the quad (inverting
+		// them, as the other formats do).  This order must match the shared index buffer in RenderSupport.
+		short u0 = _tileLeft[itemNumber];
+		short v0 = _tileTop[itemNumber];
+		short u1 = _auxLeft[auxIndex];
+		short v1 = _auxTop[auxIndex];
+		_putMergedVertex(buffer, x, y, u0, v0, u1, v1);
+		_putMergedVertex(buffer, x + width, y, u0, v0, u1, v1);
+		_putMergedVertex(buffer, x + width, y + height, u0, v0, u1, v1);
+		_putMergedVertex(buffer, x, y + height, u0, v0, u1, v1);
+	}
+
+	private static boolean _isRunMatching(int[] tileKeys, int key, int x, int y, int width)
+	{
+		boolean isMatching = true;
+		for (int i = 0; isMatching && (i < width); ++i)
+		{
+			isMatching = (key == tileKeys[_tileIndex(x + i, y)]);
+		}
+		return isMatching;
+	}
+
+	private static int _tileKey(int itemNumber, int auxIndex)
+	{
+		// Item numbers fit in 16 bits and there are only a few aux textures so this is never negative.
+		return (auxIndex << 16) | (itemNumber & 0xFFFF);
+	}
+
+	private static int _tileIndex(int x, int y)
+	{
+		return (y * EDGE) + x;
+	}
+
+	private static int _signature(short itemNumber)
+	{
+		// A tile without an aux texture bakes to the same data as any other tile with the same item.
+		return (itemNumber & 0xFFFF);
+	}
+
+	private static BlockAddress[] _buildAddressTable()
+	{
+		BlockAddress[] addresses = new BlockAddress[EDGE * EDGE * EDGE];
+		for (int z = 0; z < EDGE; ++z)
+		{
+			for (int y = 0; y < EDGE; ++y)
+			{
+				for (int x = 0; x < EDGE; ++x)
+				{
+					addresses[_addressIndex(x, y, z)] = new BlockAddress((byte)x, (byte)y, (byte)z);
+				}
+			}
+		}
+		return addresses;
+	}
+
+	private static int _addressIndex(int x, int y, int z)
+	{
+		return (((z * EDGE) + y) * EDGE) + x;
+	}
+
+	private static void _fillCornerTables(float[] baseTable, float coordinateSize, short[] left, short[] right, short[] top, short[] bottom)
+	{
+		for (int i = 0; i < left.length; ++i)
+		{
+			float u = baseTable[(2 * i)];
+			float v = baseTable[(2 * i) + 1];
+			left[i] = _normalizedShort(u);
+			right[i] = _normalizedShort(u + coordinateSize);
+			top[i] = _normalizedShort(v);
+			bottom[i] = _normalizedShort(v + coordinateSize);
+		}
+	}
+
+	private static void _putVertex(ByteBuffer buffer, short u0, short v0, short u1, short v1)
+	{
+		buffer.putShort(u0);
+		buffer.putShort(v0);
+		buffer.putShort(u1);
+		buffer.putShort(v1);
+	}
+
+	private static void _putMergedVertex(ByteBuffer buffer, int x, int y, short u0, short v0, short u1, short v1)
+	{
+		// The position is in tiles (0-32) so it fits in unsigned bytes.
+		buffer.put((byte)x);
+		buffer.put((byte)y);
+		// Padding.
+		buffer.putShort((short)0);
+		buffer.putShort(u0);
+		buffer.putShort(v0);
+		buffer.putShort(u1);
+		buffer.putShort(v1);
+	}
+
+	private static short _normalizedShort(float value)
+	{
+		// This is stored as an unsigned short so we just truncate the rounded int.
+		return (short)Math.round(value * 65535.0f);
+	}
+}
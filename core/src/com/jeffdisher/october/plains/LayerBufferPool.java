@@ -0,0 +1,143 @@
+package com.jeffdisher.october.plains;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.utils.Assert;
+
+
+/**
+ * A pool of fixed-size GPU slots for baked layers (buffers in the VERTEX_MESH and MERGED_MESH formats, textures in the
+ * DATA_TEXTURE format).  Since every layer is the same size, the storage of a slot is only allocated once and released slots are
+ * recycled through a free list, with new data always written in-place (glBufferSubData/glTexSubImage2D).
+ * Note that this must only be used on the main thread (since it calls GL).
+ */
+public class LayerBufferPool
+{
+	/**
+	 * The most released slots we will keep around for reuse.  Anything released beyond this is deleted so that the
+	 * pool doesn't hold onto the VRAM of a much larger world the player has moved away from.
+	 */
+	public static final int MAX_FREE_SLOTS = 256;
+
+	private final GL20 _gl;
+	private final LayerManager.LayerFormat _format;
+	private final int _slotBytes;
+	// The released slots, as a stack (the first _freeSlotCount elements are valid).
+	private final int[] _freeSlots;
+	private int _freeSlotCount;
+	private int _poolSize;
+	private long _allocationsAvoided;
+
+	public LayerBufferPool(GL20 gl, LayerManager.LayerFormat format, int slotBytes)
+	{
+		_gl = gl;
+		_format = format;
+		_slotBytes = slotBytes;
+		_freeSlots = new int[MAX_FREE_SLOTS];
+		_freeSlotCount = 0;
+		_poolSize = 0;
+		_allocationsAvoided = 0L;
+	}
+
+	/**
+	 * Returns a slot with storage allocated but undefined contents.  The caller is expected to write the whole slot
+	 * before drawing it.
+	 * 
+	 * @return The buffer or texture name of the slot.
+	 */
+	public int allocate()
+	{
+		int slot;
+		if (0 == _freeSlotCount)
+		{
+			slot = _createSlot();
+			_poolSize += 1;
+		}
+		else
+		{
+			_freeSlotCount -= 1;
+			slot = _freeSlots[_freeSlotCount];
+			_allocationsAvoided += 1L;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the given slot to the pool so it can be reused by a later allocation.
+	 * 
+	 * @param slot The buffer or texture name of the slot (must have come from allocate()).
+	 */
+	public void release(int slot)
+	{
+		Assert.assertTrue(slot > 0);
+		if (_freeSlotCount < MAX_FREE_SLOTS)
+		{
+			_freeSlots[_freeSlotCount] = slot;
+			_freeSlotCount += 1;
+		}
+		else
+		{
+			_deleteSlot(slot);
+			_poolSize -= 1;
+		}
+	}
+
+	/**
+	 * @return A snapshot of the pool's counters.
+	 */
+	public Counters getCounters()
+	{
+		return new Counters(_poolSize, _freeSlotCount, _allocationsAvoided);
+	}
+
+
+	private int _createSlot()
+	{
+		int slot;
+		if (LayerManager.LayerFormat.DATA_TEXTURE == _format)
+		{
+			// We bind this on the unit the layer data textures are drawn from, so no other texture is disturbed.
+			slot = _gl.glGenTexture();
+			_gl.glActiveTexture(GL20.GL_TEXTURE0 + LayerManager.DATA_TEXTURE_UNIT);
+			_gl.glBindTexture(GL20.GL_TEXTURE_2D, slot);
+			_gl.glTexImage2D(GL20.GL_TEXTURE_2D, 0, GL20.GL_LUMINANCE_ALPHA, LayerManager.CUBOID_EDGE_TILE_COUNT, LayerManager.CUBOID_EDGE_TILE_COUNT, 0, GL20.GL_LUMINANCE_ALPHA, GL20.GL_UNSIGNED_BYTE, null);
+			// This is data, not an image, so we never want it filtered or wrapped.
+			_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_S, GL20.GL_CLAMP_TO_EDGE);
+			_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_T, GL20.GL_CLAMP_TO_EDGE);
+			_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MIN_FILTER, GL20.GL_NEAREST);
+			_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MAG_FILTER, GL20.GL_NEAREST);
+		}
+		else
+		{
+			slot = _gl.glGenBuffer();
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, slot);
+			_gl.glBufferData(GL20.GL_ARRAY_BUFFER, _slotBytes, null, GL20.GL_DYNAMIC_DRAW);
+		}
+		Assert.assertTrue(slot > 0);
+		return slot;
+	}
+
+	private void _deleteSlot(int slot)
+	{
+		if (LayerManager.LayerFormat.DATA_TEXTURE == _format)
+		{
+			_gl.glDeleteTexture(slot);
+		}
+		else
+		{
+			_gl.glDeleteBuffer(slot);
+		}
+	}
+
+
+	/**
+	 * The counters describing the state of the pool.
+	 * 
+	 * @param poolSize The number of slots currently allocated on the GPU (both in use and free).
+	 * @param freeSlots The number of slots waiting to be reused.
+	 * @param allocationsAvoided The number of allocations satisfied by reusing a free slot instead of creating one.
+	 */
+	public static record Counters(int poolSize
+			, int freeSlots
+			, long allocationsAvoided
+	) {}
+}
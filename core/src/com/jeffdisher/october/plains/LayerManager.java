@@ -2,102 +2,477 @@ package com.jeffdisher.october.plains;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
 
 import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.aspects.Aspect;
 import com.jeffdisher.october.aspects.AspectRegistry;
 import com.jeffdisher.october.aspects.Environment;
-import com.jeffdisher.october.data.BlockProxy;
 import com.jeffdisher.october.data.ColumnHeightMap;
 import com.jeffdisher.october.data.IReadOnlyCuboidData;
 import com.jeffdisher.october.types.AbsoluteLocation;
-import com.jeffdisher.october.types.Block;
 import com.jeffdisher.october.types.BlockAddress;
 import com.jeffdisher.october.types.CuboidAddress;
-import com.jeffdisher.october.types.Inventory;
 import com.jeffdisher.october.utils.Assert;
 
 
 /**
  * This class contains the logic for allocating, building, and deleting the "layers" of the main scene.  A layer is a
  * single z-level within a cuboid.
- * Note that the actual data buffers describing a layer are constructed in a background thread, only uploaded to the GPU
- * on the main thread.  A fixed number of scratch buffers are used to facilitate this.
+ * Note that the actual data buffers describing a layer are constructed in a pool of background threads, only uploaded
+ * to the GPU on the main thread.  A fixed number of scratch buffers are used to facilitate this.
+ * The main thread never takes a lock to hand off requests, collect responses, or return scratch buffers:  These all
+ * pass through single-producer/single-consumer rings and the background threads are woken with a semaphore.  Each
+ * background thread has its own response ring, so posting a response takes no lock at all.  The request and scratch
+ * buffer rings are shared by all of the background threads, since any of them can take the next request in priority
+ * order, so they take turns on their side of those (and on the pending request order) under a lock the main thread
+ * never touches.
+ * Pending requests are serviced in order of their distance from the "focus" location (where the player is), so the
+ * visible layers are baked first, even when there are many stale requests still waiting.
+ * When a new cuboid arrives near the focus, the layers which are about to be drawn are requested together, as a batch,
+ * which is baked by one background thread (the others keep taking other requests) and uploaded in a single frame.
+ * Layers around the location the player is predicted to reach are also pre-baked, as low-priority requests, with a
+ * budget limiting how many of these can be outstanding at once.
+ * A baked layer is either a vertex attribute buffer (of every tile or of greedily merged quads) or a small data texture,
+ * depending on the LayerFormat chosen at startup.
+ * Layers which are uniform (entirely air or stone, for example) all share a single, reference-counted, GPU buffer per
+ * uniform signature.  These shared buffers are never patched in-place:  A change to a uniform layer re-bakes it in full.
+ * Each layer also records which of its tiles are opaque, as they are currently baked, so that RenderSupport can skip
+ * the tiles they hide in the layer below.
+ * The GPU memory used by baked layers is limited by a budget:  When it is exceeded, the least-recently-drawn layers
+ * are evicted (except those near the focus z-level), to be re-baked if they are drawn again.
+ * The pipeline reports its metrics (queue depth, scratch buffer starvation, bake times, upload latency, and so on)
+ * through getTelemetry().
+ * Light isn't baked into the layers:  Each drawn layer also has a small light texture (see LightPlane), built and
+ * patched directly on the main thread, so a change of light only re-uploads a few texels instead of re-baking layers.
+ * Only these light textures read from the adjacent cuboids, so they are the only thing invalidated when those change.
+ * Until a layer can be drawn, it can be drawn as its placeholder texture (see PlaceholderPlane), built synchronously so
+ * that a backed-up bake queue never leaves holes in the scene.
  */
 public class LayerManager
 {
+	/**
+	 * The representations a baked layer can have on the GPU.
+	 */
+	public static enum LayerFormat
+	{
+		/**
+		 * Each layer is a vertex buffer of atlas UVs, drawn over the static tile mesh in RenderSupport.
+		 */
+		VERTEX_MESH,
+		/**
+		 * Each layer is a 32x32 LUMINANCE_ALPHA texture of item number and aux texture index, which the fragment shader
+		 * resolves into atlas coordinates.
+		 */
+		DATA_TEXTURE,
+		/**
+		 * Each layer is a vertex buffer of quads, with their own positions, where runs of identical tiles are merged into
+		 * larger rectangles (the fragment shader tiles the atlas textures across them).  These layers can't be patched
+		 * by rows so any change re-bakes the whole layer.
+		 */
+		MERGED_MESH,
+	};
+
 	public static final int CUBOID_EDGE_TILE_COUNT = 32;
 	// The texture buffer just has the 2 sets of textures:  the main atlas and the secondary atlas.
+	// These are packed as normalized integers, since the atlas coordinates are all in [0.0, 1.0] (light is in the separate
+	// light texture).
 	public static final int SINGLE_VERTEX_BUFFER_BYTES = 0
-			// UV texture coordinates for main texture atlas.
-			+ (2 * Float.BYTES)
-			// UV texture coordinates for secondary texture atlas.
-			+ (2 * Float.BYTES)
-			// A float for the block light multiplier.
-			+ Float.BYTES
-			// A float for the sky light multiplier.
-			+ Float.BYTES
+			// UV texture coordinates for main texture atlas (normalized unsigned shorts).
+			+ (2 * Short.BYTES)
+			// UV texture coordinates for secondary texture atlas (normalized unsigned shorts).
+			+ (2 * Short.BYTES)
 	;
-	public static final int SINGLE_LAYER_TOTAL_BUFFER_BYTES = 1
-			// tiles per layer
-			* (CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT)
-			// triangles per tile
-			* 2
-			// vertices per triangle
-			* 3
+	public static final int VERTEX_OFFSET_UV0 = 0;
+	public static final int VERTEX_OFFSET_UV1 = VERTEX_OFFSET_UV0 + (2 * Short.BYTES);
+	public static final int SINGLE_LAYER_ROW_BUFFER_BYTES = 1
+			// tiles per row
+			* CUBOID_EDGE_TILE_COUNT
+			// vertices per tile (the triangles are formed by the shared index buffer in RenderSupport)
+			* RenderSupport.VERTICES_PER_SQUARE
 			// Bytes per vertex.
 			* SINGLE_VERTEX_BUFFER_BYTES
 	;
+	public static final int SINGLE_LAYER_TOTAL_BUFFER_BYTES = CUBOID_EDGE_TILE_COUNT * SINGLE_LAYER_ROW_BUFFER_BYTES;
+	// In the DATA_TEXTURE format, each tile is a single LUMINANCE_ALPHA texel:  item number, aux texture.
+	public static final int SINGLE_TILE_DATA_BYTES = 2;
+	public static final int SINGLE_LAYER_DATA_ROW_BYTES = CUBOID_EDGE_TILE_COUNT * SINGLE_TILE_DATA_BYTES;
+	// In the MERGED_MESH format, each vertex also has its position, since the quads vary in size.
+	public static final int MERGED_VERTEX_BYTES = 0
+			// The position in tiles (unsigned bytes, 0-32).
+			+ (2 * Byte.BYTES)
+			// Padding to keep the shorts aligned.
+			+ (2 * Byte.BYTES)
+			// The top-left UV of the texture in the main atlas (normalized unsigned shorts).
+			+ (2 * Short.BYTES)
+			// The top-left UV of the texture in the secondary atlas (normalized unsigned shorts).
+			+ (2 * Short.BYTES)
+	;
+	public static final int MERGED_OFFSET_POSITION = 0;
+	public static final int MERGED_OFFSET_UV0 = MERGED_OFFSET_POSITION + (4 * Byte.BYTES);
+	public static final int MERGED_OFFSET_UV1 = MERGED_OFFSET_UV0 + (2 * Short.BYTES);
+	public static final int MERGED_QUAD_BYTES = RenderSupport.VERTICES_PER_SQUARE * MERGED_VERTEX_BYTES;
+	// A merged layer has no rows but we size its slot for the worst case (no tiles merged), a row's worth at a time.
+	public static final int SINGLE_LAYER_MERGED_ROW_BYTES = CUBOID_EDGE_TILE_COUNT * MERGED_QUAD_BYTES;
 	/**
-	 * The number of scratch buffers we will use for background layer baking.  More will result in fewer skipped frames
-	 * of data being copied to the GPU but will result in more memory usage and more wasted CPU time drawing these
+	 * The minimum number of scratch buffers we will use for background layer baking.  More will result in fewer skipped
+	 * frames of data being copied to the GPU but will result in more memory usage and more wasted CPU time drawing these
 	 * potentially useless data elements.
+	 * Note that we always allocate at least one more than the number of baking threads, so that none of them starve.
 	 */
 	public static final int SCRATCH_BUFFER_COUNT = 4;
+	/**
+	 * The capacity of the ring carrying new requests to the background threads.  If this fills up, the main thread keeps
+	 * the extra requests until there is room, instead of waiting.
+	 */
+	public static final int REQUEST_RING_CAPACITY = 1024;
+	/**
+	 * The capacity of the ring carrying responses from each background thread back to the main thread.  If this fills
+	 * up, that background thread waits for the main thread to drain it.
+	 */
+	public static final int RESPONSE_RING_CAPACITY = 4096;
+	// How long a background thread waits before trying again to post a response into a full ring.
+	private static final long RESPONSE_RETRY_NANOS = 1000000L;
+	/**
+	 * The texture unit the shaders in RenderSupport read the light texture of a layer from (see getLightTexture()).
+	 */
+	public static final int LIGHT_TEXTURE_UNIT = 3;
+	/**
+	 * The texture unit the DATA_TEXTURE layers are drawn from.  The layer data textures are also bound on this unit to
+	 * upload them, so that doesn't disturb whatever other texture unit happens to be active.
+	 */
+	public static final int DATA_TEXTURE_UNIT = 2;
+	/**
+	 * The most light textures we will build from scratch in a single frame (patching the dirty rows of an existing one
+	 * is cheap so that isn't limited).  A layer without its light texture isn't drawn yet.
+	 */
+	public static final int LIGHT_TEXTURE_BUILDS_PER_FRAME = 8;
+	/**
+	 * The texture unit the placeholder program in RenderSupport reads the placeholder texture of a layer from (see
+	 * getPlaceholderTexture()).
+	 */
+	public static final int PLACEHOLDER_TEXTURE_UNIT = 4;
+	/**
+	 * The most placeholder textures we will build (or rebuild) in a single frame.  These are only one lookup per tile so
+	 * this can be higher than the light textures, but a large backlog still shouldn't stall the frame.
+	 */
+	public static final int PLACEHOLDER_BUILDS_PER_FRAME = 16;
+	// The bits of _CuboidMeshes.neighbourDependencies, for each adjacent cuboid a light texture read from.
+	private static final byte DEPENDS_X_PLUS = 0x01;
+	private static final byte DEPENDS_X_MINUS = 0x02;
+	private static final byte DEPENDS_Y_PLUS = 0x04;
+	private static final byte DEPENDS_Y_MINUS = 0x08;
+	private static final byte DEPENDS_ABOVE = 0x10;
+	/**
+	 * When ordering background requests, a single z-level is considered as "far" as this many blocks horizontally,
+	 * since the player only ever sees the layers immediately above and below them.
+	 */
+	public static final int Z_DISTANCE_WEIGHT = 32;
+	/**
+	 * A new cuboid is baked as a batch if it is within this many cuboids of the focus, horizontally (this matches the
+	 * 3x3 cuboids RenderSupport draws).
+	 */
+	public static final int BATCH_CUBOID_RADIUS = 1;
+	/**
+	 * The batch for a new cuboid contains the layers within this many z-levels of the focus (this matches the z-levels
+	 * RenderSupport draws).  Note that every layer in a batch needs its own scratch buffer at the same time.
+	 */
+	public static final int BATCH_Z_RADIUS = 1;
+	/**
+	 * Layers are pre-baked within this many z-levels of the predicted location (one more than RenderSupport draws, so
+	 * that stepping up or down a level finds the newly visible layer ready).
+	 */
+	public static final int PREFETCH_Z_RADIUS = 2;
+	/**
+	 * The default for the maximum number of pre-bake requests which can be outstanding at once.
+	 */
+	public static final int DEFAULT_PREFETCH_BUDGET = 4;
+	/**
+	 * The default budget for the GPU memory used by baked layers.
+	 */
+	public static final long DEFAULT_VRAM_BUDGET_BYTES = 64L * 1024L * 1024L;
+	/**
+	 * When the VRAM budget is exceeded, we evict layers until we are below this fraction of it, so that we aren't
+	 * evicting something on every frame.
+	 */
+	public static final float EVICTION_TARGET_FRACTION = 0.9f;
+	/**
+	 * If everything resident is in use (drawn this frame or close to the focus) so an eviction pass can't get below the
+	 * budget, we wait this many frames before scanning again, instead of rescanning every frame.
+	 */
+	public static final int EVICTION_RETRY_FRAMES = 60;
 	/**
 	 * The light value we will see for block light in the case of "total darkness".  Actual block light is added on top
 	 * of this.
 	 */
 	public static final float MINIMUM_LIGHT = 0.1f;
 
-	private final Environment _environment;
+	/**
+	 * Compares two layers by the order they should be evicted:  The least-recently-drawn first, favouring those
+	 * furthest from the focus z-level when tied.
+	 * 
+	 * @param lastDrawnFrameOne The frame when the first layer was last drawn.
+	 * @param zDistanceOne The distance of the first layer from the focus z-level.
+	 * @param lastDrawnFrameTwo The frame when the second layer was last drawn.
+	 * @param zDistanceTwo The distance of the second layer from the focus z-level.
+	 * @return Less than 0 if the first layer should be evicted first, more than 0 if the second should be, or 0 if it
+	 * doesn't matter.
+	 */
+	public static int compareForEviction(long lastDrawnFrameOne
+			, int zDistanceOne
+			, long lastDrawnFrameTwo
+			, int zDistanceTwo
+	)
+	{
+		return (lastDrawnFrameOne != lastDrawnFrameTwo)
+				? Long.compare(lastDrawnFrameOne, lastDrawnFrameTwo)
+				: Integer.compare(zDistanceTwo, zDistanceOne)
+		;
+	}
+
+
 	private final GL20 _gl;
-	private final TextureAtlas _textureAtlas;
+	private final LayerFormat _format;
+	private final int _rowBytes;
+	private final LayerBufferPool _bufferPool;
+	private final int _slotBytes;
+	private final LayerBaker _baker;
+	private final short _airItemNumber;
+	// The scratch buffer for filling light textures (only accessed on the main thread).
+	private final ByteBuffer _lightScratch;
+	private int _lightTextureCount;
+	private int _lightTextureBuildsThisFrame;
+	// The average colour of each item's tile texture and the scratch buffer for filling placeholder textures (only
+	// accessed on the main thread).
+	private final int[] _averageColours;
+	private final ByteBuffer _placeholderScratch;
+	private int _placeholderCount;
+	private int _placeholderBuildsThisFrame;
+	private final BakeTelemetry _telemetry;
 	private final Map<CuboidAddress, _CuboidMeshes> _layerTextureMeshes;
-	private final Queue<ByteBuffer> _scratchGraphicsBuffers;
+	// The shared buffers for uniform layers, by their uniform signature.
+	private final Map<Integer, _SharedLayer> _uniformLayers;
+	// The state of pre-baking (only accessed on the main thread).
+	private AbsoluteLocation _predictedLocation;
+	private int _prefetchBudget;
+	private int _prefetchInFlight;
+	// The state of the VRAM budget (only accessed on the main thread).
+	private long _vramBudgetBytes;
+	private long _frameNumber;
+	// The first frame where we will scan for evictions again after a scan couldn't get below the budget.
+	private long _nextEvictionScanFrame;
+	private long _residencyHits;
+	private long _residencyMisses;
+	private long _evictions;
+	// The number of light textures invalidated since an adjacent cuboid they read from changed (only accessed on the main thread).
+	private long _neighbourInvalidations;
+	// The number of layers with changed blocks which needed neither a re-bake nor a light patch (only accessed on the main thread).
+	private long _skippedBakes;
+	// The number of full layers uploaded and the vertices they contained (only accessed on the main thread).
+	private long _uploadedLayers;
+	private long _uploadedVertices;
 
-	// Objects related to the handoff.
-	private boolean _keepRunning;
-	private final Queue<_RenderRequest> _requests;
-	private final Queue<_RenderRequest> _responses;
-	private final Thread _background;
+	// Objects related to the handoff.  The main thread is the producer of _requestInbox and _scratchGraphicsBuffers, while
+	// the background threads take turns on the other side of those, under _workerLock.  Each background thread is the
+	// only producer of its own ring in _responses, all of which the main thread consumes.
+	private volatile boolean _keepRunning;
+	private volatile AbsoluteLocation _focus;
+	private final SpscRingBuffer<_RenderRequest> _requestInbox;
+	private final SpscRingBuffer<_RenderResponse>[] _responses;
+	// The ring in _responses which the main thread polls first (only accessed on the main thread).
+	private int _nextResponseRing;
+	private final SpscRingBuffer<ByteBuffer> _scratchGraphicsBuffers;
+	// Released whenever there may be new work for the background threads (a request or a returned scratch buffer).
+	private final Semaphore _workSignal;
+	private final Thread[] _background;
+	// Requests which didn't fit in _requestInbox (only accessed on the main thread).
+	private final Queue<_RenderRequest> _overflowRequests;
+	// The pending requests, ordered by distance from _requestsFocus (protected by _workerLock).
+	private final Object _workerLock;
+	private PriorityQueue<_RenderRequest> _requests;
+	private AbsoluteLocation _requestsFocus;
+	// The last request recorded as starved of scratch buffers, so that spurious wake-ups don't record it again.
+	private _RenderRequest _starvedRequest;
+	private volatile int _pendingRequestCount;
 
-	public LayerManager(Environment environment, GL20 gl, TextureAtlas textureAtlas)
+	public LayerManager(Environment environment, GL20 gl, TextureAtlas textureAtlas, LayerFormat format)
 	{
-		_environment = environment;
 		_gl = gl;
-		_textureAtlas = textureAtlas;
+		_format = format;
+		switch (format)
+		{
+		case DATA_TEXTURE:
+			_rowBytes = SINGLE_LAYER_DATA_ROW_BYTES;
+			break;
+		case MERGED_MESH:
+			_rowBytes = SINGLE_LAYER_MERGED_ROW_BYTES;
+			break;
+		default:
+			_rowBytes = SINGLE_LAYER_ROW_BUFFER_BYTES;
+			break;
+		}
+		_slotBytes = CUBOID_EDGE_TILE_COUNT * _rowBytes;
+		_bufferPool = new LayerBufferPool(gl, format, _slotBytes);
+		_baker = new LayerBaker(environment, textureAtlas, format);
+		_airItemNumber = environment.special.AIR.item().number();
+		_lightScratch = ByteBuffer.allocateDirect(LightPlane.TEXTURE_BYTES);
+		_lightScratch.order(ByteOrder.nativeOrder());
+		_lightTextureCount = 0;
+		_lightTextureBuildsThisFrame = 0;
+		_averageColours = textureAtlas.tileTextureAverageColour;
+		_placeholderScratch = ByteBuffer.allocateDirect(PlaceholderPlane.TEXTURE_BYTES);
+		_placeholderScratch.order(ByteOrder.nativeOrder());
+		_placeholderCount = 0;
+		_placeholderBuildsThisFrame = 0;
+		_telemetry = new BakeTelemetry();
 		_layerTextureMeshes = new HashMap<>();
-		_scratchGraphicsBuffers = new LinkedList<>();
-		for (int i = 0; i < SCRATCH_BUFFER_COUNT; ++i)
+		_uniformLayers = new HashMap<>();
+		_predictedLocation = null;
+		_prefetchBudget = DEFAULT_PREFETCH_BUDGET;
+		_prefetchInFlight = 0;
+		_vramBudgetBytes = DEFAULT_VRAM_BUDGET_BYTES;
+		_frameNumber = 0L;
+		_nextEvictionScanFrame = 0L;
+		_residencyHits = 0L;
+		_residencyMisses = 0L;
+		_evictions = 0L;
+		_neighbourInvalidations = 0L;
+		_skippedBakes = 0L;
+		_uploadedLayers = 0L;
+		_uploadedVertices = 0L;
+		
+		// We leave one core for the main thread but use the rest for baking.
+		int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		int scratchBufferCount = Math.max(SCRATCH_BUFFER_COUNT, threadCount + 1);
+		Assert.assertTrue(((2 * BATCH_Z_RADIUS) + 1) <= scratchBufferCount);
+		// (the scratch ring is large enough to hold every buffer so returning one never fails)
+		_scratchGraphicsBuffers = new SpscRingBuffer<>(Integer.highestOneBit(scratchBufferCount) << 1);
+		for (int i = 0; i < scratchBufferCount; ++i)
 		{
-			ByteBuffer buffer = ByteBuffer.allocateDirect(SINGLE_LAYER_TOTAL_BUFFER_BYTES);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(CUBOID_EDGE_TILE_COUNT * _rowBytes);
 			buffer.order(ByteOrder.nativeOrder());
 			_scratchGraphicsBuffers.offer(buffer);
 		}
 		
-		// Setup the background processing thread.
+		// Setup the background processing threads.
 		_keepRunning = true;
-		_requests = new LinkedList<>();
-		_responses = new LinkedList<>();
-		_background = new Thread(() -> _backgroundMain()
-				, "Layer Baking Thread"
-		);
-		_background.start();
+		_focus = null;
+		_requestInbox = new SpscRingBuffer<>(REQUEST_RING_CAPACITY);
+		_responses = _createResponseRings(threadCount);
+		_nextResponseRing = 0;
+		_workSignal = new Semaphore(0);
+		_overflowRequests = new LinkedList<>();
+		_workerLock = new Object();
+		_requests = new PriorityQueue<>(_requestComparator(null));
+		_requestsFocus = null;
+		_starvedRequest = null;
+		_pendingRequestCount = 0;
+		_background = new Thread[threadCount];
+		for (int i = 0; i < threadCount; ++i)
+		{
+			SpscRingBuffer<_RenderResponse> responses = _responses[i];
+			_background[i] = new Thread(() -> _backgroundMain(responses)
+					, "Layer Baking Thread " + i
+			);
+			_background[i].start();
+		}
+	}
+
+	/**
+	 * Sets the location used to prioritize the background baking requests:  Requests for layers closest to this
+	 * location are baked first.
+	 * 
+	 * @param focus The location of the block where the player is.
+	 */
+	public void setFocusLocation(AbsoluteLocation focus)
+	{
+		// The background threads will re-order their pending requests when they see this change.
+		_focus = focus;
+	}
+
+	/**
+	 * Sets the location the player is expected to reach soon, used to decide which layers to pre-bake in
+	 * prefetchPredictedLayers().
+	 * 
+	 * @param predictedLocation The block where the player is predicted to be.
+	 */
+	public void setPredictedLocation(AbsoluteLocation predictedLocation)
+	{
+		_predictedLocation = predictedLocation;
+	}
+
+	/**
+	 * Sets the maximum number of pre-bake requests which can be outstanding at once.
+	 * 
+	 * @param budget The number of requests (0 disables pre-baking).
+	 */
+	public void setPrefetchBudget(int budget)
+	{
+		Assert.assertTrue(budget >= 0);
+		_prefetchBudget = budget;
+	}
+
+	/**
+	 * Requests low-priority bakes of any missing or stale layers around the predicted location, as long as the prefetch
+	 * budget allows it.  These are only serviced once there are no requests waiting from getBakedLayer(), so they
+	 * never delay the layers being drawn.
+	 */
+	public void prefetchPredictedLayers()
+	{
+		if (null != _predictedLocation)
+		{
+			// We check the same 3x3 cuboids RenderSupport would draw from the predicted location.
+			for (int zOffset = -PREFETCH_Z_RADIUS; (zOffset <= PREFETCH_Z_RADIUS) && (_prefetchInFlight < _prefetchBudget); ++zOffset)
+			{
+				for (int xOffset = -CUBOID_EDGE_TILE_COUNT; (xOffset <= CUBOID_EDGE_TILE_COUNT) && (_prefetchInFlight < _prefetchBudget); xOffset += CUBOID_EDGE_TILE_COUNT)
+				{
+					for (int yOffset = -CUBOID_EDGE_TILE_COUNT; (yOffset <= CUBOID_EDGE_TILE_COUNT) && (_prefetchInFlight < _prefetchBudget); yOffset += CUBOID_EDGE_TILE_COUNT)
+					{
+						AbsoluteLocation location = _predictedLocation.getRelative(xOffset, yOffset, zOffset);
+						CuboidAddress address = location.getCuboidAddress();
+						_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+						if ((null != cuboidTextures) && _requestLayerIfStale(address, cuboidTextures, location.getBlockAddress().z(), true))
+						{
+							_prefetchInFlight += 1;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the budget for the GPU memory used by baked layers (enforced at the end of the next
+	 * completeBackgroundBakeRequest()).
+	 * Everything a layer holds on the GPU counts against the budget:  Its baked buffer or texture, its light texture, and
+	 * its placeholder texture.  When the budget is exceeded, whole layers are evicted (releasing all of these, even if the
+	 * layer was never baked) until we are below EVICTION_TARGET_FRACTION of it, least-recently-drawn first.  A layer is
+	 * never evicted while it is being baked, if it was drawn this frame, or if it is within PREFETCH_Z_RADIUS of the
+	 * focus, so the budget is soft:  If those alone exceed it, we stay over budget and only try again after
+	 * EVICTION_RETRY_FRAMES.
+	 * 
+	 * @param budgetBytes The number of bytes.
+	 */
+	public void setVramBudget(long budgetBytes)
+	{
+		Assert.assertTrue(budgetBytes >= 0L);
+		_vramBudgetBytes = budgetBytes;
+		// Check the new budget right away.
+		_nextEvictionScanFrame = 0L;
 	}
 
 	public boolean containsCuboid(CuboidAddress address)
@@ -105,38 +480,144 @@ public class LayerManager
 		return _layerTextureMeshes.containsKey(address);
 	}
 
-	public void storeCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap)
+	/**
+	 * Stores a new or updated cuboid, invalidating any of its layers which need to be re-baked and any light textures
+	 * which need to be patched.
+	 * 
+	 * @param cuboid The cuboid data.
+	 * @param heightMap The height map for the cuboid's column.
+	 * @param changedBlocks The blocks which changed since the last update (null if everything should be re-baked).
+	 * @param changedAspects The aspects which changed in changedBlocks (null if changedBlocks is null).
+	 */
+	public void storeCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks, Set<Aspect<?, ?>> changedAspects)
 	{
 		// This could be new or a replacement so see if we need to clean anything up.
 		CuboidAddress address = cuboid.getCuboidAddress();
-		// Note that we don't actually delete any of the old buffers - just reset their generation so they will be regenerated in the background.
+		// Note that we don't actually delete any of the old buffers - just invalidate their rows so they will be regenerated in the background.
 		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
-		if (null != cuboidTextures)
+		// The blocks whose light or sky light changed (null if everything should be reloaded).
+		Set<BlockAddress> lightChanges = null;
+		if ((null != cuboidTextures) && (null != changedBlocks))
 		{
-			// This already exists so just update the data and increment the generation number so it is re-baked in the background.
+			// We know exactly what changed so only invalidate the rows which could show those changes.
+			IReadOnlyCuboidData oldData = cuboidTextures.data;
+			ColumnHeightMap oldHeightMap = cuboidTextures.heightMap;
 			cuboidTextures.data = cuboid;
 			cuboidTextures.heightMap = heightMap;
-			cuboidTextures.dataGeneration += 1;
+			Set<BlockAddress> bakedChanges = new HashSet<>();
+			lightChanges = new HashSet<>();
+			// Most changes (inventories of solid blocks, fuel, logic) don't change anything we draw so we skip those
+			// blocks without even looking at them.
+			boolean mayChangeBake = changedAspects.contains(AspectRegistry.BLOCK)
+					|| changedAspects.contains(AspectRegistry.INVENTORY)
+			;
+			// A new block can also move the top of its column, which changes the sky light.
+			boolean mayChangeLight = changedAspects.contains(AspectRegistry.LIGHT)
+					|| changedAspects.contains(AspectRegistry.BLOCK)
+			;
+			boolean mayChangeOverlay = changedAspects.contains(AspectRegistry.DAMAGE)
+					|| changedAspects.contains(AspectRegistry.CRAFTING)
+					|| changedAspects.contains(AspectRegistry.BLOCK)
+			;
+			// Bit masks of the layers (by z) with changed blocks and those which need a re-bake or a light patch.
+			int changedLayers = 0;
+			int invalidatedLayers = 0;
+			for (BlockAddress block : changedBlocks)
+			{
+				changedLayers |= (1 << block.z());
+				// Damage and crafting progress are only drawn in the transient overlay, so update that directly.
+				if (mayChangeOverlay)
+				{
+					_updateTransientTile(address, cuboidTextures, block);
+				}
+				if (mayChangeBake && !_baker.isSameBakedState(oldData, cuboid, block))
+				{
+					bakedChanges.add(block);
+					invalidatedLayers |= (1 << block.z());
+				}
+				if (mayChangeLight && _isLightChanged(oldData, oldHeightMap, cuboid, heightMap, block))
+				{
+					lightChanges.add(block);
+					// This patches the light of this layer and the one below it.
+					invalidatedLayers |= (1 << block.z());
+					if (block.z() > 0)
+					{
+						invalidatedLayers |= (1 << (block.z() - 1));
+					}
+					// If the top of the column moved, the sky light of the old and new top layers is patched.
+					int oldHeight = oldHeightMap.getHeight(block.x(), block.y());
+					int newHeight = heightMap.getHeight(block.x(), block.y());
+					if (oldHeight != newHeight)
+					{
+						invalidatedLayers |= _layerBitInCuboid(address, oldHeight);
+						invalidatedLayers |= _layerBitInCuboid(address, newHeight);
+					}
+				}
+			}
+			_skippedBakes += Integer.bitCount(changedLayers & ~invalidatedLayers);
+			for (BlockAddress block : bakedChanges)
+			{
+				// Only the tile for this block changed since light is in the light textures.
+				cuboidTextures.invalidateRows(block.z(), block.y(), block.y());
+			}
+			for (BlockAddress block : lightChanges)
+			{
+				byte x = block.x();
+				byte y = block.y();
+				byte z = block.z();
+				// This block's texel is in its own layer's light texture (the adjacent tiles read it from there).
+				cuboidTextures.invalidateLight(z, y + 1, y + 1);
+				// The layer below reads this as the light above it (the neighbouring cuboids are handled below).
+				if (z > 0)
+				{
+					cuboidTextures.invalidateLight(z - 1, y + 1, y + 1);
+				}
+				// If the top of this column moved, the sky light changed for both the old and new top layers.
+				int oldHeight = oldHeightMap.getHeight(x, y);
+				int newHeight = heightMap.getHeight(x, y);
+				if (oldHeight != newHeight)
+				{
+					_invalidateColumnTop(address, x, y, oldHeight, heightMap);
+					_invalidateColumnTop(address, x, y, newHeight, heightMap);
+				}
+			}
 		}
 		else
 		{
-			// This is new so just add it.
-			_layerTextureMeshes.put(address, new _CuboidMeshes(cuboid, heightMap));
-		}
-		
-		// We also need to the z-31 layer of the cuboid below this for rebake, since the lighting may have changed.
-		_CuboidMeshes below = _layerTextureMeshes.get(address.getRelative(0, 0, -1));
-		if (null != below)
-		{
-			int existing = below.buffersByZ[31];
-			if (0 != existing)
+			if (null != cuboidTextures)
+			{
+				// This is a full replacement so update the data and invalidate everything so it is re-baked in the background
+				// (the bakes will also find the transient tiles again).
+				cuboidTextures.data = cuboid;
+				cuboidTextures.heightMap = heightMap;
+				cuboidTextures.transientTiles.clear();
+				for (int z = 0; z < CUBOID_EDGE_TILE_COUNT; ++z)
+				{
+					cuboidTextures.invalidateRows(z, 0, CUBOID_EDGE_TILE_COUNT - 1);
+					cuboidTextures.invalidateLight(z, 0, LightPlane.TEXTURE_EDGE - 1);
+				}
+			}
+			else
 			{
-				// 0 is not a valid generation number so this will cause a background re-bake.
-				below.bufferGeneration[31] = 0;
+				// This is new so add it and, if it is close enough to be drawn, bake the layers we need in one batch.
+				cuboidTextures = new _CuboidMeshes(cuboid, heightMap);
+				_layerTextureMeshes.put(address, cuboidTextures);
+				_requestBatchBake(address, cuboidTextures);
 			}
 		}
+		
+		// The borders of the adjacent cuboids' light textures read the light from this one, so patch whichever of those depend on it.
+		_invalidateDependentNeighbours(address, lightChanges);
 	}
 
+	/**
+	 * Returns the baked layer for the given z-level of the given cuboid, requesting a background bake if it is missing
+	 * or stale.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return The buffer (VERTEX_MESH) or texture (DATA_TEXTURE) name of the layer, or 0 if it isn't baked yet.
+	 */
 	public int getBakedLayer(CuboidAddress address, byte zLayer)
 	{
 		int buffer = 0;
@@ -145,373 +626,1330 @@ public class LayerManager
 		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
 		if (null != cuboidTextures)
 		{
-			// Now, get the layer buffer object.
+			// Now, get the layer buffer object (this is only called to draw the layer, so this counts as a use).
 			buffer = cuboidTextures.buffersByZ[zLayer];
+			cuboidTextures.lastDrawnFrame[zLayer] = _frameNumber;
+			if (0 != buffer)
+			{
+				_residencyHits += 1L;
+			}
+			else
+			{
+				_residencyMisses += 1L;
+			}
 			
-			// If this is missing or stale, we want to issue a background request.
-			if ((0 == buffer) || (cuboidTextures.dataGeneration != cuboidTextures.bufferGeneration[zLayer]))
+			// If this is missing or stale, issue a background request.
+			_requestLayerIfStale(address, cuboidTextures, zLayer, false);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns the light texture for the given z-level of the given cuboid, building it or patching its dirty rows first,
+	 * if needed.  Note that this leaves the texture bound to LIGHT_TEXTURE_UNIT.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return The texture name or 0 if it isn't built yet (the frame's budget for new light textures was exhausted).
+	 */
+	public int getLightTexture(CuboidAddress address, byte zLayer)
+	{
+		int texture = 0;
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		if (null != cuboidTextures)
+		{
+			texture = cuboidTextures.lightTexturesByZ[zLayer];
+			if (0 == texture)
 			{
-				// We want to issue the background baking request so see if we have a scratch buffer.
-				ByteBuffer scratch = _scratchGraphicsBuffers.poll();
-				if (null != scratch)
+				if (_lightTextureBuildsThisFrame < LIGHT_TEXTURE_BUILDS_PER_FRAME)
 				{
-					// We can issue the request so update the generation numbers to mark that it is happening and enqueue this.
-					cuboidTextures.bufferGeneration[zLayer] = cuboidTextures.dataGeneration;
-					IReadOnlyCuboidData aboveCuboid = null;
-					if (31 == zLayer)
+					texture = _gl.glGenTexture();
+					_gl.glActiveTexture(GL20.GL_TEXTURE0 + LIGHT_TEXTURE_UNIT);
+					_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MIN_FILTER, GL20.GL_NEAREST);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MAG_FILTER, GL20.GL_NEAREST);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_S, GL20.GL_CLAMP_TO_EDGE);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_T, GL20.GL_CLAMP_TO_EDGE);
+					_fillLightRows(address, cuboidTextures, zLayer, 0, LightPlane.TEXTURE_EDGE - 1);
+					_gl.glTexImage2D(GL20.GL_TEXTURE_2D, 0, GL20.GL_RGBA, LightPlane.TEXTURE_EDGE, LightPlane.TEXTURE_EDGE, 0, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, _lightScratch);
+					((java.nio.Buffer) _lightScratch).clear();
+					cuboidTextures.lightTexturesByZ[zLayer] = texture;
+					cuboidTextures.clearLightRows(zLayer);
+					// Record which adjacent cuboids this texture reads so we know to patch it when they change.
+					byte dependencies = (byte)(DEPENDS_X_PLUS | DEPENDS_X_MINUS | DEPENDS_Y_PLUS | DEPENDS_Y_MINUS);
+					if ((CUBOID_EDGE_TILE_COUNT - 1) == zLayer)
 					{
-						_CuboidMeshes aboveTextures = _layerTextureMeshes.get(address.getRelative(0, 0, 1));
-						aboveCuboid = (null != aboveTextures) ? aboveTextures.data : null;
+						dependencies |= DEPENDS_ABOVE;
 					}
-					_CuboidMeshes xCuboidPlusMesh  = _layerTextureMeshes.get(address.getRelative( 1, 0, 0));
-					_CuboidMeshes xCuboidMinusMesh = _layerTextureMeshes.get(address.getRelative(-1, 0, 0));
-					_CuboidMeshes yCuboidPlusMesh  = _layerTextureMeshes.get(address.getRelative(0,  1, 0));
-					_CuboidMeshes yCuboidMinusMesh = _layerTextureMeshes.get(address.getRelative(0, -1, 0));
-					_RenderRequest request = new _RenderRequest(cuboidTextures.data
-							, aboveCuboid
-							, (null != xCuboidPlusMesh)  ? xCuboidPlusMesh.data  : null
-							, (null != xCuboidMinusMesh) ? xCuboidMinusMesh.data : null
-							, (null != yCuboidPlusMesh)  ? yCuboidPlusMesh.data  : null
-							, (null != yCuboidMinusMesh) ? yCuboidMinusMesh.data : null
-							, cuboidTextures.heightMap
-							, zLayer
-							, scratch
-					);
-					_enqueueRequest(request);
+					cuboidTextures.neighbourDependencies[zLayer] = dependencies;
+					_lightTextureCount += 1;
+					_lightTextureBuildsThisFrame += 1;
+					_refreshTransientLight(address, cuboidTextures, zLayer);
 				}
 			}
+			else if (cuboidTextures.lightDirtyFirst[zLayer] <= cuboidTextures.lightDirtyLast[zLayer])
+			{
+				// Only re-upload the rows which changed.
+				int firstRow = cuboidTextures.lightDirtyFirst[zLayer];
+				int lastRow = cuboidTextures.lightDirtyLast[zLayer];
+				_fillLightRows(address, cuboidTextures, zLayer, firstRow, lastRow);
+				_gl.glActiveTexture(GL20.GL_TEXTURE0 + LIGHT_TEXTURE_UNIT);
+				_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+				_gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, firstRow, LightPlane.TEXTURE_EDGE, lastRow - firstRow + 1, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, _lightScratch);
+				((java.nio.Buffer) _lightScratch).clear();
+				cuboidTextures.clearLightRows(zLayer);
+				_refreshTransientLight(address, cuboidTextures, zLayer);
+			}
+			if (0 != texture)
+			{
+				// This is only called once the layer is baked, so now it can be drawn and no longer needs its placeholder.
+				_releasePlaceholder(cuboidTextures, zLayer);
+			}
 		}
-		return buffer;
+		return texture;
 	}
 
-	public void removeCuboid(CuboidAddress address)
+	/**
+	 * Returns the placeholder texture for the given z-level of the given cuboid, to draw while the layer can't be drawn
+	 * (not baked or its light texture isn't built), building or refreshing it first, if needed.  Note that this leaves the
+	 * texture bound to PLACEHOLDER_TEXTURE_UNIT.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return The texture name or 0 if it isn't built yet (the frame's budget for placeholders was exhausted).
+	 */
+	public int getPlaceholderTexture(CuboidAddress address, byte zLayer)
 	{
-		_CuboidMeshes cuboidTextures = _layerTextureMeshes.remove(address);
+		int texture = 0;
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
 		if (null != cuboidTextures)
 		{
-			// Clear any existing buffers.
-			int[] layers = cuboidTextures.buffersByZ;
-			for (int layer : layers)
+			texture = cuboidTextures.placeholderTexturesByZ[zLayer];
+			// The placeholder is rebuilt if the blocks changed since it was built (a stale one is still better than nothing).
+			int generation = cuboidTextures.layerGeneration.get(zLayer);
+			boolean isStale = (generation != cuboidTextures.placeholderGeneration[zLayer]);
+			if (isStale && (_placeholderBuildsThisFrame < PLACEHOLDER_BUILDS_PER_FRAME))
 			{
-				if (0 != layer)
+				((java.nio.Buffer) _placeholderScratch).clear();
+				PlaceholderPlane.fillLayer(_placeholderScratch, cuboidTextures.data, cuboidTextures.heightMap, zLayer, _averageColours);
+				((java.nio.Buffer) _placeholderScratch).flip();
+				_gl.glActiveTexture(GL20.GL_TEXTURE0 + PLACEHOLDER_TEXTURE_UNIT);
+				if (0 == texture)
+				{
+					texture = _gl.glGenTexture();
+					_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MIN_FILTER, GL20.GL_NEAREST);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_MAG_FILTER, GL20.GL_NEAREST);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_S, GL20.GL_CLAMP_TO_EDGE);
+					_gl.glTexParameteri(GL20.GL_TEXTURE_2D, GL20.GL_TEXTURE_WRAP_T, GL20.GL_CLAMP_TO_EDGE);
+					_gl.glTexImage2D(GL20.GL_TEXTURE_2D, 0, GL20.GL_RGBA, PlaceholderPlane.EDGE, PlaceholderPlane.EDGE, 0, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, _placeholderScratch);
+					cuboidTextures.placeholderTexturesByZ[zLayer] = texture;
+					_placeholderCount += 1;
+				}
+				else
 				{
-					_gl.glDeleteBuffer(layer);
+					_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+					_gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, 0, PlaceholderPlane.EDGE, PlaceholderPlane.EDGE, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, _placeholderScratch);
 				}
+				((java.nio.Buffer) _placeholderScratch).clear();
+				cuboidTextures.placeholderGeneration[zLayer] = generation;
+				_placeholderBuildsThisFrame += 1;
+			}
+			else if (0 != texture)
+			{
+				_gl.glActiveTexture(GL20.GL_TEXTURE0 + PLACEHOLDER_TEXTURE_UNIT);
+				_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
 			}
 		}
+		return texture;
 	}
 
 	/**
-	 * Will check to see if any background layer bake requests have been completed and will upload the first one to the
-	 * GPU if any are found.
+	 * Returns which tiles of a layer are opaque, as it is currently baked, so that the tiles of the layer below which
+	 * they hide don't need to be drawn.
+	 * Since a layer is only drawn once its light texture is built (otherwise, its placeholder may be drawn, or nothing),
+	 * this is only returned once the layer has both its buffer and its light texture.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return A bit mask of opaque tiles in each row (bit x of element y) which must not be modified, or null if the
+	 * layer isn't drawn yet.
 	 */
-	public void completeBackgroundBakeRequest()
+	public int[] getOpaqueRows(CuboidAddress address, byte zLayer)
 	{
-		_RenderRequest response = _dequeueResponse();
-		if (null != response)
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		return ((null != cuboidTextures) && (0 != cuboidTextures.buffersByZ[zLayer]) && (0 != cuboidTextures.lightTexturesByZ[zLayer]))
+				? cuboidTextures.opaqueRowsByZ[zLayer]
+				: null
+		;
+	}
+
+	/**
+	 * Checks if a layer is baked as entirely air, meaning that drawing it would have no visible effect.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return True if the layer's current buffer is the shared buffer for a uniform layer of air.
+	 */
+	public boolean isTransparentLayer(CuboidAddress address, byte zLayer)
+	{
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		int signature = (null != cuboidTextures)
+				? cuboidTextures.uniformSignatureByZ[zLayer]
+				: LayerBaker.NOT_UNIFORM
+		;
+		return (LayerBaker.NOT_UNIFORM != signature) && (_airItemNumber == LayerBaker.uniformItem(signature));
+	}
+
+	/**
+	 * Returns the tiles of a layer which need a transient aux texture (crafting activity or damage) drawn over them.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return The transient tiles of the layer (empty if there are none or the cuboid isn't loaded).
+	 */
+	public Collection<TransientTile> getTransientTiles(CuboidAddress address, byte zLayer)
+	{
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		Collection<TransientTile> tiles = Collections.emptyList();
+		if ((null != cuboidTextures) && !cuboidTextures.transientTiles.isEmpty())
 		{
-			// Make sure that this is still here.
-			_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(response.data.getCuboidAddress());
-			if (null != cuboidTextures)
+			// There are rarely more than a few of these in a whole cuboid so we just filter them.
+			List<TransientTile> inLayer = new ArrayList<>();
+			for (TransientTile tile : cuboidTextures.transientTiles.values())
 			{
-				int oldBuffer = cuboidTextures.buffersByZ[response.zLayer];
-				if (oldBuffer > 0)
+				if (zLayer == tile.block.z())
 				{
-					_gl.glDeleteBuffer(oldBuffer);
+					inLayer.add(tile);
 				}
-				int buffer = _uploadBufferData(response.scratchBuffer);
-				Assert.assertTrue(buffer > 0);
-				cuboidTextures.buffersByZ[response.zLayer] = buffer;
 			}
-			
-			// Salvage the scratch buffer.
-			_scratchGraphicsBuffers.add(response.scratchBuffer);
+			tiles = inLayer;
 		}
+		return tiles;
 	}
 
 	/**
-	 * Shuts down the background baking thread.
+	 * Creates an overlay tile for the given block, lit the same way the layer shaders light it (since the overlay doesn't
+	 * read the light textures).
+	 * 
+	 * @param address The cuboid address (must be loaded).
+	 * @param block The block within the cuboid.
+	 * @param aux The aux texture to draw over the tile.
+	 * @return The tile.
 	 */
-	public void shutdown()
+	public TransientTile createLitTile(CuboidAddress address, BlockAddress block, TextureAtlas.Auxiliary aux)
 	{
-		synchronized(this)
-		{
-			_keepRunning = false;
-			this.notifyAll();
-		}
-		try
-		{
-			_background.join();
-		}
-		catch (InterruptedException e)
-		{
-			throw Assert.unexpected(e);
-		}
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		return _litTile(address, cuboidTextures, block, aux);
 	}
 
-
-	private void _backgroundMain()
+	public void removeCuboid(CuboidAddress address)
 	{
-		_RenderRequest request = _backgroundGetRequest(null);
-		while (null != request)
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.remove(address);
+		if (null != cuboidTextures)
 		{
-			// Populate the buffer.
-			_backgroundDefineLayerTextureBuffer(request.data
-					, request.aboveCuboid
-					, request.xCuboidPlus
-					, request.xCuboidMinus
-					, request.yCuboidPlus
-					, request.yCuboidMinus
-					, request.heightMap
-					, request.zLayer
-					, request.scratchBuffer
-			);
+			// Mark this removed so that any requests still waiting in the background are dropped.
+			cuboidTextures.isRemoved = true;
 			
-			// Pass this back since the buffer is now full.
-			request = _backgroundGetRequest(request);
+			// Return any existing buffers to the pool (or drop our reference to them, if shared).
+			for (int z = 0; z < CUBOID_EDGE_TILE_COUNT; ++z)
+			{
+				_releaseLayerBuffer(cuboidTextures, z);
+				_releaseLightTexture(cuboidTextures, z);
+				_releasePlaceholder(cuboidTextures, z);
+			}
 		}
 	}
 
-	private synchronized _RenderRequest _backgroundGetRequest(_RenderRequest response)
+	/**
+	 * Will check to see if any background layer bake requests have been completed and will upload the first one to the
+	 * GPU if any are found.
+	 * Any requests which were cancelled in the background are also processed, but don't count as the upload.
+	 */
+	public void completeBackgroundBakeRequest()
 	{
-		if (null != response)
-		{
-			_responses.add(response);
-			// (We don't notify here since the foreground thread never waits on this response - just picks it up later)
-		}
-		while (_keepRunning && _requests.isEmpty())
+		// This is called once per frame so we also use it to age the layers and retry any requests which didn't fit.
+		_frameNumber += 1L;
+		_lightTextureBuildsThisFrame = 0;
+		_placeholderBuildsThisFrame = 0;
+		_flushOverflowRequests();
+		boolean didUpload = false;
+		_RenderResponse response = _dequeueResponse();
+		while (null != response)
 		{
-			try
+			// Make sure that this is still here (not removed or replaced).
+			_RenderRequest request = response.request;
+			if (request.isPrefetch)
 			{
-				this.wait();
+				_prefetchInFlight -= 1;
 			}
-			catch (InterruptedException e)
+			_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(request.data.getCuboidAddress());
+			if (null == response.scratchBuffers)
 			{
-				// Interruption not used.
-				throw Assert.unexpected(e);
+				_telemetry.recordStaleDiscard();
 			}
-		}
-		return _keepRunning
-				? _requests.poll()
-				: null
-		;
-	}
-
-	private void _backgroundDefineLayerTextureBuffer(IReadOnlyCuboidData cuboid
-			, IReadOnlyCuboidData aboveCuboid
-			, IReadOnlyCuboidData xCuboidPlus
-			, IReadOnlyCuboidData xCuboidMinus
-			, IReadOnlyCuboidData yCuboidPlus
-			, IReadOnlyCuboidData yCuboidMinus
-			, ColumnHeightMap heightMap
-			, byte zLayer
-			, ByteBuffer bufferToFill
-	)
-	{
-		// Populate the common mesh.
-		((java.nio.Buffer) bufferToFill).position(0);
-		FloatBuffer textureBuffer = bufferToFill.asFloatBuffer();
-		float textureSize0 = _textureAtlas.tileCoordinateSize;
-		float textureSize1 = _textureAtlas.auxCoordinateSize;
-		AbsoluteLocation cuboidBase = cuboid.getCuboidAddress().getBase();
-		int layerAbsoluteZ = cuboidBase.z() + zLayer;
-		for (byte y = 0; y < CUBOID_EDGE_TILE_COUNT; ++y)
-		{
-			for (byte x = 0; x < CUBOID_EDGE_TILE_COUNT; ++x)
-			{
-				BlockAddress blockAddress = new BlockAddress(x, y, zLayer);
-				BlockProxy proxy = new BlockProxy(blockAddress, cuboid);
-				Block block = proxy.getBlock();
-				
-				// The primary texture is just based on whatever the item type is.
-				float[] uv0 = _textureAtlas.baseOfTileTexture(block.item());
-				float textureBase0U = uv0[0];
-				float textureBase0V = uv0[1];
-				
-				// NOTE:  We invert the textures here (probably not ideal).
-				float[] tl0 = new float[]{textureBase0U, textureBase0V};
-				float[] tr0 = new float[]{textureBase0U + textureSize0, textureBase0V};
-				float[] br0 = new float[]{textureBase0U + textureSize0, textureBase0V + textureSize0};
-				float[] bl0 = new float[]{textureBase0U, textureBase0V + textureSize0};
-				
-				// Handle the secondary texture to blend in.
-				boolean isCrafting = (null != proxy.getCrafting());
-				short damage = proxy.getDamage();
-				// Note that we will get an empty inventory if an inventory is supported.
-				Inventory blockInventory = proxy.getInventory();
-				boolean blockPermitsEntityMovement = !_environment.blocks.isSolid(block);
-				boolean hasDebrisInventory = blockPermitsEntityMovement && (null != blockInventory) && !blockInventory.sortedKeys().isEmpty();
-				
-				// Apply the rules for how we prioritize secondary textures.
-				TextureAtlas.Auxiliary aux;
-				if (isCrafting)
-				{
-					aux = TextureAtlas.Auxiliary.ACTIVE_STATION;
-				}
-				else if (hasDebrisInventory)
-				{
-					aux = TextureAtlas.Auxiliary.DEBRIS;
-				}
-				else if (damage > 0)
+			else if (request.meshes != cuboidTextures)
+			{
+				// This was baked but the cuboid was removed or replaced while it was in flight.
+				_telemetry.recordStaleDiscard();
+			}
+			else
+			{
+				_telemetry.recordUpload(System.nanoTime() - request.requestNanos);
+			}
+			if (request.meshes == cuboidTextures)
+			{
+				for (int zLayer = request.firstLayer; zLayer <= request.lastLayer; ++zLayer)
 				{
-					// We will favour showing cracks at a low damage, so the feedback is obvious
-					float damaged = (float) damage / (float)_environment.damage.getToughness(block);
-					if (damaged > 0.6f)
-					{
-						aux = TextureAtlas.Auxiliary.BREAK_HEAVY;
-					}
-					else if (damaged > 0.3f)
+					cuboidTextures.isInFlight[zLayer] = false;
+					if (null != response.scratchBuffers)
 					{
-						aux = TextureAtlas.Auxiliary.BREAK_MEDIUM;
+						ByteBuffer scratchBuffer = response.scratchBuffers[zLayer - request.firstLayer];
+						int signature = response.uniformSignatures[zLayer - request.firstLayer];
+						boolean isFullLayer = (0 == request.firstRow) && ((CUBOID_EDGE_TILE_COUNT - 1) == request.lastRow);
+						int quadCount = _bakedQuadCount(scratchBuffer);
+						if (isFullLayer)
+						{
+							_uploadedLayers += 1L;
+							_uploadedVertices += (long)quadCount * (long)RenderSupport.VERTICES_PER_SQUARE;
+						}
+						// The opaque tiles always describe what is in the buffer, so they are updated with the same rows.
+						int[] opaqueRows = response.opaqueRows[zLayer - request.firstLayer];
+						System.arraycopy(opaqueRows, request.firstRow, cuboidTextures.opaqueRowsByZ[zLayer], request.firstRow, request.lastRow - request.firstRow + 1);
+						// The bake may have been of older data so we check the current data for the transient tiles it found
+						// (the overlay is always updated directly on any change).
+						for (BlockAddress block : response.transientTiles.get(zLayer - request.firstLayer))
+						{
+							_updateTransientTile(request.data.getCuboidAddress(), cuboidTextures, block);
+						}
+						if (isFullLayer && (LayerBaker.NOT_UNIFORM != signature))
+						{
+							// This is uniform so use the shared buffer for this signature instead of a buffer of its own.
+							if (signature != cuboidTextures.uniformSignatureByZ[zLayer])
+							{
+								_releaseLayerBuffer(cuboidTextures, zLayer);
+								cuboidTextures.buffersByZ[zLayer] = _acquireUniformBuffer(signature, scratchBuffer, quadCount);
+								cuboidTextures.uniformSignatureByZ[zLayer] = signature;
+								cuboidTextures.quadCountByZ[zLayer] = quadCount;
+							}
+						}
+						else
+						{
+							if (LayerBaker.NOT_UNIFORM != cuboidTextures.uniformSignatureByZ[zLayer])
+							{
+								// We never write into a shared buffer but a shared layer is always re-baked in full, so it can
+								// just switch to a buffer of its own.
+								Assert.assertTrue(isFullLayer);
+								_releaseLayerBuffer(cuboidTextures, zLayer);
+							}
+							int buffer = cuboidTextures.buffersByZ[zLayer];
+							if (0 == buffer)
+							{
+								// This is the first bake of this layer (so it covers all the rows) - just take a slot from the pool.
+								Assert.assertTrue(isFullLayer);
+								buffer = _bufferPool.allocate();
+								cuboidTextures.buffersByZ[zLayer] = buffer;
+							}
+							// We always write in-place, only the rows we re-baked.
+							_patchLayer(buffer, scratchBuffer, request.firstRow, request.lastRow, quadCount);
+							cuboidTextures.quadCountByZ[zLayer] = quadCount;
+						}
 					}
 					else
 					{
-						aux = TextureAtlas.Auxiliary.BREAK_LIGHT;
+						// This was cancelled since it was stale, so the rows it would have re-baked are still dirty.
+						cuboidTextures.mergeDirtyRows(zLayer, request.firstRow, request.lastRow);
 					}
 				}
-				else
+			}
+			
+			if (null != response.scratchBuffers)
+			{
+				// Salvage the scratch buffers (a batch counts as a single upload, so that it appears all at once).
+				for (ByteBuffer scratchBuffer : response.scratchBuffers)
 				{
-					aux = TextureAtlas.Auxiliary.NONE;
+					_returnScratchBuffer(scratchBuffer);
 				}
-				float[] uv1 = _textureAtlas.baseOfAuxTexture(aux);
-				float textureBase1U = uv1[0];
-				float textureBase1V = uv1[1];
-				
-				// NOTE:  We invert the textures here (probably not ideal).
-				float[] tl1 = new float[]{textureBase1U, textureBase1V};
-				float[] tr1 = new float[]{textureBase1U + textureSize1, textureBase1V};
-				float[] br1 = new float[]{textureBase1U + textureSize1, textureBase1V + textureSize1};
-				float[] bl1 = new float[]{textureBase1U, textureBase1V + textureSize1};
-				
-				// We also want the light level of the block above this (since we are looking down at the layer).
-				byte zLight = (31 != zLayer)
-						? cuboid.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), blockAddress.y(), (byte)(blockAddress.z() + 1)))
-						: (null != aboveCuboid) ? aboveCuboid.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), blockAddress.y(), (byte)0)) : 0
-				;
-				// We want the block light to be the max of all adjacent blocks since otherwise you can't see the block next to you in a tunnel since it is under a solid block.
-				byte xLightPlus = (31 != blockAddress.x())
-						? cuboid.getData7(AspectRegistry.LIGHT, new BlockAddress((byte)(blockAddress.x() + 1), blockAddress.y(), blockAddress.z()))
-						: (null != xCuboidPlus) ? xCuboidPlus.getData7(AspectRegistry.LIGHT, new BlockAddress((byte)0, blockAddress.y(), blockAddress.z())) : 0
-				;
-				byte xLightMinus = (0 != blockAddress.x())
-						? cuboid.getData7(AspectRegistry.LIGHT, new BlockAddress((byte)(blockAddress.x() - 1), blockAddress.y(), blockAddress.z()))
-						: (null != xCuboidMinus) ? xCuboidMinus.getData7(AspectRegistry.LIGHT, new BlockAddress((byte)31, blockAddress.y(), blockAddress.z())) : 0
-				;
-				byte yLightPlus = (31 != blockAddress.y())
-						? cuboid.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), (byte)(blockAddress.y() + 1), blockAddress.z()))
-						: (null != yCuboidPlus) ? yCuboidPlus.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), (byte)0, blockAddress.z())) : 0
-				;
-				byte yLightMinus = (0 != blockAddress.y())
-						? cuboid.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), (byte)(blockAddress.y() - 1), blockAddress.z()))
-						: (null !=yCuboidPlus) ? yCuboidPlus.getData7(AspectRegistry.LIGHT, new BlockAddress(blockAddress.x(), (byte)31, blockAddress.z())) : 0
-				;
-				byte light = (byte)Math.max(zLight, Math.max(Math.max(xLightPlus, xLightMinus), Math.max(yLightPlus, yLightMinus)));
-				float blockLightMultiplier = MINIMUM_LIGHT + (((float)light) / 15.0f);
-				// Sky light is based on whether or not this block is the top.
-				int topBlock = heightMap.getHeight(x, y);
-				float skyLightMultiplier = (layerAbsoluteZ == topBlock)
-						? 1.0f
-						: 0.0f
-				;
-				
-				textureBuffer.put(bl0);
-				textureBuffer.put(bl1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-				textureBuffer.put(br0);
-				textureBuffer.put(br1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-				textureBuffer.put(tr0);
-				textureBuffer.put(tr1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-				
-				textureBuffer.put(bl0);
-				textureBuffer.put(bl1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-				textureBuffer.put(tr0);
-				textureBuffer.put(tr1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-				textureBuffer.put(tl0);
-				textureBuffer.put(tl1);
-				textureBuffer.put(blockLightMultiplier);
-				textureBuffer.put(skyLightMultiplier);
-			}
-		}
-	}
-
-	private int _uploadBufferData(ByteBuffer buffer)
-	{
-		((java.nio.Buffer) buffer).position(0);
+				didUpload = true;
+			}
+			response = didUpload
+					? null
+					: _dequeueResponse()
+			;
+		}
 		
-		int commonTextures = _gl.glGenBuffer();
-		_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, commonTextures);
-		_gl.glBufferData(GL20.GL_ARRAY_BUFFER, SINGLE_LAYER_TOTAL_BUFFER_BYTES, buffer.asFloatBuffer(), GL20.GL_DYNAMIC_DRAW);
-		_gl.glEnableVertexAttribArray(1);
-		_gl.glVertexAttribPointer(1, 2, GL20.GL_FLOAT, false, 5 * Float.BYTES, 0);
-		_gl.glEnableVertexAttribArray(2);
-		_gl.glVertexAttribPointer(2, 2, GL20.GL_FLOAT, false, 5 * Float.BYTES, 2 * Float.BYTES);
-		_gl.glEnableVertexAttribArray(3);
-		_gl.glVertexAttribPointer(3, 1, GL20.GL_FLOAT, false, 5 * Float.BYTES, 4 * Float.BYTES);
-		return commonTextures;
+		// Now that anything new is allocated, make sure we are still within the budget.
+		_evictToBudget();
+	}
+
+	/**
+	 * @return A snapshot of the counters of the pool of GPU slots used for the baked layers.
+	 */
+	public LayerBufferPool.Counters getBufferPoolCounters()
+	{
+		return _bufferPool.getCounters();
 	}
 
-	private synchronized void _enqueueRequest(_RenderRequest request)
+	/**
+	 * @return A snapshot of the counters describing how well the VRAM budget fits what is being drawn.
+	 */
+	public ResidencyCounters getResidencyCounters()
 	{
-		_requests.add(request);
-		this.notifyAll();
+		return new ResidencyCounters(_residencyHits, _residencyMisses, _evictions, _getResidentBytes(), _vramBudgetBytes);
 	}
 
-	private synchronized _RenderRequest _dequeueResponse()
+	/**
+	 * @return The number of light textures which were invalidated because an adjacent cuboid they read from was loaded or
+	 * changed.
+	 */
+	public long getNeighbourInvalidationCount()
 	{
-		return _responses.poll();
+		return _neighbourInvalidations;
 	}
 
+	/**
+	 * @return The number of layers which had changed blocks but didn't need to be re-baked or have their light patched,
+	 * since nothing they draw changed (such as an inventory change in a chest, a change of fuel, or only damage or
+	 * crafting, which are drawn as an overlay).
+	 */
+	public long getSkippedBakeCount()
+	{
+		return _skippedBakes;
+	}
 
-	private static class _CuboidMeshes
+	/**
+	 * @return The number of full layers uploaded and the vertices they contained (an unmerged layer always has 4096).
+	 */
+	public VertexCounters getVertexCounters()
 	{
-		public IReadOnlyCuboidData data;
-		public ColumnHeightMap heightMap;
-		public int dataGeneration;
-		public final int[] buffersByZ;
-		public final int[] bufferGeneration;
-		
-		public _CuboidMeshes(IReadOnlyCuboidData data, ColumnHeightMap heightMap)
-		{
-			this.data = data;
-			this.heightMap = heightMap;
-			this.dataGeneration = 1;
-			this.buffersByZ = new int[32];
-			this.bufferGeneration = new int[32];
-		}
+		return new VertexCounters(_uploadedLayers, _uploadedVertices);
 	}
 
-	
 	/**
-	 * The type we pass in when asking for a layer to be rendered by the background thread.  This includes all of the
-	 * information that the thread might need (all read-only data which may become stale but never invalid).
-	 * -data - The data for the cuboid being rendered
-	 * -aboveCuboid - The cuboid data above this one (if the zLayer is 31)
-	 * -xCuboidPlus  - The cuboid x+1 from data, for other context (may be null if not loaded)
-	 * -xCuboidMinus - The cuboid x-1 from data, for other context (may be null if not loaded)
-	 * -yCuboidPlus  - The cuboid y+1 from data, for other context (may be null if not loaded)
-	 * -yCuboidMinus - The cuboid y-1 from data, for other context (may be null if not loaded)
-	 * -heightMap - The height map for the column of data
-	 * -zLayer - The z-layer to render in this request, relative to data ([0..31])
-	 * -scratchBuffer - The buffer to use as temporary space for writing and uploading the mesh
-	 */
-	private static record _RenderRequest(IReadOnlyCuboidData data
-			, IReadOnlyCuboidData aboveCuboid
-			, IReadOnlyCuboidData xCuboidPlus
-			, IReadOnlyCuboidData xCuboidMinus
-			, IReadOnlyCuboidData yCuboidPlus
-			, IReadOnlyCuboidData yCuboidMinus
-			, ColumnHeightMap heightMap
-			, byte zLayer
-			, ByteBuffer scratchBuffer
-	)
-	{}
+	 * Returns the number of quads in a layer, as it is currently baked.  This is every tile, except in the MERGED_MESH
+	 * format.
+	 * 
+	 * @param address The cuboid address.
+	 * @param zLayer The z-level within the cuboid.
+	 * @return The number of quads to draw (0 if the layer isn't baked).
+	 */
+	public int getQuadCount(CuboidAddress address, byte zLayer)
+	{
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(address);
+		return ((null != cuboidTextures) && (0 != cuboidTextures.buffersByZ[zLayer]))
+				? cuboidTextures.quadCountByZ[zLayer]
+				: 0
+		;
+	}
+
+	/**
+	 * @return A snapshot of the metrics of the background baking pipeline.
+	 */
+	public BakeTelemetry.Snapshot getTelemetry()
+	{
+		// We don't take the lock of the background threads here so the depth is only an estimate.
+		int queueDepth = _overflowRequests.size() + _requestInbox.size() + _pendingRequestCount;
+		int pendingUploads = 0;
+		for (SpscRingBuffer<_RenderResponse> ring : _responses)
+		{
+			pendingUploads += ring.size();
+		}
+		return _telemetry.snapshot(queueDepth, pendingUploads, _scratchGraphicsBuffers.size());
+	}
+
+	/**
+	 * Shuts down the background baking threads.
+	 */
+	public void shutdown()
+	{
+		_keepRunning = false;
+		_workSignal.release(_background.length);
+		try
+		{
+			for (Thread thread : _background)
+			{
+				thread.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			throw Assert.unexpected(e);
+		}
+	}
+
+
+	private void _backgroundMain(SpscRingBuffer<_RenderResponse> responses)
+	{
+		_RenderResponse work = _backgroundGetRequest(responses, null);
+		while (null != work)
+		{
+			// Populate the buffers.
+			// A batch is baked, one layer after another, on this thread:  The other background threads are already busy
+			// with the other pending requests, so spreading it across more threads would only oversubscribe the cores.
+			_RenderRequest request = work.request;
+			for (int i = 0; i < work.scratchBuffers.length; ++i)
+			{
+				byte zLayer = (byte)(request.firstLayer + i);
+				work.uniformSignatures[i] = _backgroundBakeLayer(request, zLayer, work.scratchBuffers[i], work.opaqueRows[i], work.transientTiles.get(i));
+			}
+			
+			// Pass this back since the buffers are now full.
+			work = _backgroundGetRequest(responses, work);
+		}
+	}
+
+	private int _backgroundBakeLayer(_RenderRequest request, byte zLayer, ByteBuffer scratchBuffer, int[] opaqueRows, List<BlockAddress> transientTiles)
+	{
+		long start = System.nanoTime();
+		int uniformSignature = _baker.bakeRows(request.data
+				, zLayer
+				, request.firstRow
+				, request.lastRow
+				, scratchBuffer
+				, opaqueRows
+				, transientTiles
+		);
+		_telemetry.recordBake(System.nanoTime() - start);
+		return uniformSignature;
+	}
+
+	private _RenderResponse _backgroundGetRequest(SpscRingBuffer<_RenderResponse> responses, _RenderResponse response)
+	{
+		if (null != response)
+		{
+			_backgroundPostResponse(responses, response);
+		}
+		_RenderResponse work = null;
+		while (_keepRunning && (null == work))
+		{
+			work = _backgroundTakeRequest(responses);
+			if (null == work)
+			{
+				// Wait until the main thread signals that there may be something new (a signal can be stale, since any
+				// thread could have consumed it, but we just check again).
+				_workSignal.acquireUninterruptibly();
+			}
+		}
+		return work;
+	}
+
+	private _RenderResponse _backgroundTakeRequest(SpscRingBuffer<_RenderResponse> responses)
+	{
+		_RenderResponse work = null;
+		List<_RenderResponse> cancelled = new ArrayList<>();
+		synchronized (_workerLock)
+		{
+			// Pull in any new requests, re-ordering everything if the focus changed.
+			AbsoluteLocation focus = _focus;
+			if ((null != focus) && !focus.equals(_requestsFocus))
+			{
+				PriorityQueue<_RenderRequest> reordered = new PriorityQueue<>(_requestComparator(focus));
+				reordered.addAll(_requests);
+				_requests = reordered;
+				_requestsFocus = focus;
+			}
+			_RenderRequest incoming = _requestInbox.poll();
+			while (null != incoming)
+			{
+				_requests.add(incoming);
+				incoming = _requestInbox.poll();
+			}
+			
+			// Note that a batch request needs a scratch buffer for every layer so it waits until they are all available.
+			while ((null == work) && !_requests.isEmpty() && (_scratchGraphicsBuffers.size() >= _requests.peek().generations.length))
+			{
+				// Cancel any request which is already stale before we give it a scratch buffer (we still pass it back, with no
+				// buffer, so the foreground knows it is no longer in flight).
+				_RenderRequest request = _requests.poll();
+				if (!request.meshes.isRemoved && _isAnyLayerCurrent(request))
+				{
+					ByteBuffer[] scratchBuffers = new ByteBuffer[request.generations.length];
+					for (int i = 0; i < scratchBuffers.length; ++i)
+					{
+						scratchBuffers[i] = _scratchGraphicsBuffers.poll();
+					}
+					List<List<BlockAddress>> transientTiles = new ArrayList<>();
+					for (int i = 0; i < scratchBuffers.length; ++i)
+					{
+						transientTiles.add(new ArrayList<>());
+					}
+					work = new _RenderResponse(request, scratchBuffers, new int[scratchBuffers.length], new int[scratchBuffers.length][CUBOID_EDGE_TILE_COUNT], transientTiles);
+				}
+				else
+				{
+					cancelled.add(new _RenderResponse(request, null, null, null, null));
+				}
+			}
+			// We are woken up for every returned scratch buffer (or even spuriously) so only record each blocked request
+			// once.
+			if ((null == work) && !_requests.isEmpty() && (_requests.peek() != _starvedRequest))
+			{
+				_starvedRequest = _requests.peek();
+				_telemetry.recordScratchStarvation();
+			}
+			_pendingRequestCount = _requests.size();
+		}
+		
+		// We pass back the cancellations outside of the lock since this may need to wait for room in the ring.
+		for (_RenderResponse cancel : cancelled)
+		{
+			_backgroundPostResponse(responses, cancel);
+		}
+		return work;
+	}
+
+	private void _backgroundPostResponse(SpscRingBuffer<_RenderResponse> responses, _RenderResponse response)
+	{
+		// This thread is the only producer of its response ring so this needs no lock.
+		boolean didPost = false;
+		while (!didPost)
+		{
+			didPost = responses.offer(response);
+			if (!didPost)
+			{
+				// The main thread drains the cancelled responses every frame so there will be room soon.
+				LockSupport.parkNanos(RESPONSE_RETRY_NANOS);
+			}
+		}
+	}
+
+	private static boolean _isAnyLayerCurrent(_RenderRequest request)
+	{
+		// If even one layer of a batch is still current, we bake them all, since the stale ones will just be re-requested.
+		boolean isCurrent = false;
+		for (int i = 0; !isCurrent && (i < request.generations.length); ++i)
+		{
+			isCurrent = (request.generations[i] == request.meshes.layerGeneration.get(request.firstLayer + i));
+		}
+		return isCurrent;
+	}
+
+	private void _requestBatchBake(CuboidAddress address, _CuboidMeshes cuboidTextures)
+	{
+		AbsoluteLocation focus = _getFocus();
+		if (null != focus)
+		{
+			CuboidAddress focusCuboid = focus.getCuboidAddress();
+			boolean isNear = (Math.abs(address.x() - focusCuboid.x()) <= BATCH_CUBOID_RADIUS)
+					&& (Math.abs(address.y() - focusCuboid.y()) <= BATCH_CUBOID_RADIUS)
+			;
+			int baseZ = address.z() * CUBOID_EDGE_TILE_COUNT;
+			int firstLayer = Math.max(0, focus.z() - BATCH_Z_RADIUS - baseZ);
+			int lastLayer = Math.min(CUBOID_EDGE_TILE_COUNT - 1, focus.z() + BATCH_Z_RADIUS - baseZ);
+			if (isNear && (firstLayer <= lastLayer))
+			{
+				_enqueueRequest(_buildRequest(address, cuboidTextures, (byte)firstLayer, (byte)lastLayer, (byte)0, (byte)(CUBOID_EDGE_TILE_COUNT - 1), false));
+			}
+		}
+	}
+
+	private boolean _requestLayerIfStale(CuboidAddress address, _CuboidMeshes cuboidTextures, byte zLayer, boolean isPrefetch)
+	{
+		// We only allow one request in flight per layer, since a request may only re-bake some of the rows.
+		int generation = cuboidTextures.layerGeneration.get(zLayer);
+		boolean shouldRequest = !cuboidTextures.isInFlight[zLayer] && (generation != cuboidTextures.bufferGeneration[zLayer]);
+		if (shouldRequest)
+		{
+			// If there is no buffer of its own yet (none or a shared uniform one), we need all the rows, not just the
+			// ones which changed.
+			// A merged layer has no fixed rows to patch so it is always re-baked in full.
+			boolean canPatch = (0 != cuboidTextures.buffersByZ[zLayer])
+					&& (LayerBaker.NOT_UNIFORM == cuboidTextures.uniformSignatureByZ[zLayer])
+					&& (LayerFormat.MERGED_MESH != _format)
+			;
+			byte firstRow = canPatch ? cuboidTextures.dirtyRowFirst[zLayer] : 0;
+			byte lastRow = canPatch ? cuboidTextures.dirtyRowLast[zLayer] : (byte)(CUBOID_EDGE_TILE_COUNT - 1);
+			_enqueueRequest(_buildRequest(address, cuboidTextures, zLayer, zLayer, firstRow, lastRow, isPrefetch));
+		}
+		return shouldRequest;
+	}
+
+	private _RenderRequest _buildRequest(CuboidAddress address, _CuboidMeshes cuboidTextures, byte firstLayer, byte lastLayer, byte firstRow, byte lastRow, boolean isPrefetch)
+	{
+		// Update the generation numbers to mark that these layers are being baked (the background thread will only
+		// assign scratch buffers once it is ready to bake them).
+		int[] generations = new int[lastLayer - firstLayer + 1];
+		for (int zLayer = firstLayer; zLayer <= lastLayer; ++zLayer)
+		{
+			int generation = cuboidTextures.layerGeneration.get(zLayer);
+			generations[zLayer - firstLayer] = generation;
+			cuboidTextures.bufferGeneration[zLayer] = generation;
+			cuboidTextures.isInFlight[zLayer] = true;
+			cuboidTextures.clearDirtyRows(zLayer);
+		}
+		
+		// A batch is prioritized by its middle layer.
+		int centreLayer = (firstLayer + lastLayer) / 2;
+		AbsoluteLocation layerCentre = address.getBase().getRelative(CUBOID_EDGE_TILE_COUNT / 2, CUBOID_EDGE_TILE_COUNT / 2, centreLayer);
+		return new _RenderRequest(cuboidTextures
+				, generations
+				, layerCentre
+				, cuboidTextures.data
+				, firstLayer
+				, lastLayer
+				, firstRow
+				, lastRow
+				, isPrefetch
+				, System.nanoTime()
+		);
+	}
+
+	private int _acquireUniformBuffer(int signature, ByteBuffer scratchBuffer, int quadCount)
+	{
+		// Uniform layers with the same signature have identical data so the first one to arrive populates the buffer.
+		_SharedLayer shared = _uniformLayers.get(signature);
+		if (null == shared)
+		{
+			int buffer = _bufferPool.allocate();
+			_patchLayer(buffer, scratchBuffer, 0, CUBOID_EDGE_TILE_COUNT - 1, quadCount);
+			shared = new _SharedLayer(buffer);
+			_uniformLayers.put(signature, shared);
+		}
+		shared.referenceCount += 1;
+		return shared.buffer;
+	}
+
+	private void _releaseLayerBuffer(_CuboidMeshes cuboidTextures, int zLayer)
+	{
+		int buffer = cuboidTextures.buffersByZ[zLayer];
+		if (0 != buffer)
+		{
+			int signature = cuboidTextures.uniformSignatureByZ[zLayer];
+			if (LayerBaker.NOT_UNIFORM == signature)
+			{
+				_bufferPool.release(buffer);
+			}
+			else
+			{
+				// This is shared so only return it to the pool once the last layer using it is gone.
+				_SharedLayer shared = _uniformLayers.get(signature);
+				shared.referenceCount -= 1;
+				if (0 == shared.referenceCount)
+				{
+					_uniformLayers.remove(signature);
+					_bufferPool.release(shared.buffer);
+				}
+			}
+			cuboidTextures.buffersByZ[zLayer] = 0;
+			cuboidTextures.uniformSignatureByZ[zLayer] = LayerBaker.NOT_UNIFORM;
+		}
+	}
+
+	private void _releaseLightTexture(_CuboidMeshes cuboidTextures, int zLayer)
+	{
+		int texture = cuboidTextures.lightTexturesByZ[zLayer];
+		if (0 != texture)
+		{
+			_gl.glDeleteTexture(texture);
+			cuboidTextures.lightTexturesByZ[zLayer] = 0;
+			// This no longer reads anything so it will be rebuilt in full if it is drawn again.
+			cuboidTextures.neighbourDependencies[zLayer] = 0;
+			cuboidTextures.clearLightRows(zLayer);
+			_lightTextureCount -= 1;
+		}
+	}
+
+	private void _releasePlaceholder(_CuboidMeshes cuboidTextures, int zLayer)
+	{
+		int texture = cuboidTextures.placeholderTexturesByZ[zLayer];
+		if (0 != texture)
+		{
+			_gl.glDeleteTexture(texture);
+			cuboidTextures.placeholderTexturesByZ[zLayer] = 0;
+			cuboidTextures.placeholderGeneration[zLayer] = 0;
+			_placeholderCount -= 1;
+		}
+	}
+
+	private long _getResidentBytes()
+	{
+		// Only the slots in use count against the budget (the pool's free list has its own limit), plus the light and
+		// placeholder textures.
+		LayerBufferPool.Counters counters = _bufferPool.getCounters();
+		return ((long)(counters.poolSize() - counters.freeSlots()) * (long)_slotBytes)
+				+ ((long)_lightTextureCount * (long)LightPlane.TEXTURE_BYTES)
+				+ ((long)_placeholderCount * (long)PlaceholderPlane.TEXTURE_BYTES)
+		;
+	}
+
+	private void _evictToBudget()
+	{
+		if ((_getResidentBytes() > _vramBudgetBytes) && (_frameNumber >= _nextEvictionScanFrame))
+		{
+			// Find everything we could evict:  Any layer holding something on the GPU (baked, or only its light or
+			// placeholder texture) and not in flight, unless it was drawn this frame or is close to the focus z-level.
+			AbsoluteLocation focus = _getFocus();
+			List<_EvictionCandidate> candidates = new ArrayList<>();
+			for (_CuboidMeshes cuboidTextures : _layerTextureMeshes.values())
+			{
+				int baseZ = cuboidTextures.data.getCuboidAddress().z() * CUBOID_EDGE_TILE_COUNT;
+				for (int z = 0; z < CUBOID_EDGE_TILE_COUNT; ++z)
+				{
+					int zDistance = (null != focus)
+							? Math.abs(baseZ + z - focus.z())
+							: Integer.MAX_VALUE
+					;
+					boolean isResident = (0 != cuboidTextures.buffersByZ[z])
+							|| (0 != cuboidTextures.lightTexturesByZ[z])
+							|| (0 != cuboidTextures.placeholderTexturesByZ[z])
+					;
+					boolean canEvict = isResident
+							&& !cuboidTextures.isInFlight[z]
+							&& (cuboidTextures.lastDrawnFrame[z] != _frameNumber)
+							&& (zDistance > PREFETCH_Z_RADIUS)
+					;
+					if (canEvict)
+					{
+						candidates.add(new _EvictionCandidate(cuboidTextures, z, cuboidTextures.lastDrawnFrame[z], zDistance));
+					}
+				}
+			}
+			
+			candidates.sort((_EvictionCandidate one, _EvictionCandidate two) -> compareForEviction(one.lastDrawnFrame, one.zDistance, two.lastDrawnFrame, two.zDistance));
+			long targetBytes = (long)(EVICTION_TARGET_FRACTION * _vramBudgetBytes);
+			for (int i = 0; (i < candidates.size()) && (_getResidentBytes() > targetBytes); ++i)
+			{
+				_EvictionCandidate candidate = candidates.get(i);
+				_releaseLayerBuffer(candidate.meshes, candidate.zLayer);
+				_releaseLightTexture(candidate.meshes, candidate.zLayer);
+				_releasePlaceholder(candidate.meshes, candidate.zLayer);
+				// Reset the generation to "never requested" so that drawing it again will request a full bake.
+				candidate.meshes.bufferGeneration[candidate.zLayer] = 0;
+				_evictions += 1L;
+			}
+			if (_getResidentBytes() > _vramBudgetBytes)
+			{
+				// Everything else is in use so don't scan again until that has had a chance to change.
+				_nextEvictionScanFrame = _frameNumber + EVICTION_RETRY_FRAMES;
+			}
+		}
+	}
+
+	private void _patchLayer(int buffer, ByteBuffer data, int firstRow, int lastRow, int quadCount)
+	{
+		if (LayerFormat.DATA_TEXTURE == _format)
+		{
+			_patchTextureData(buffer, data, firstRow, lastRow);
+		}
+		else if (LayerFormat.MERGED_MESH == _format)
+		{
+			_patchMergedData(buffer, data, quadCount);
+		}
+		else
+		{
+			_patchBufferData(buffer, data, firstRow, lastRow);
+		}
+	}
+
+	private void _patchMergedData(int buffer, ByteBuffer data, int quadCount)
+	{
+		// The quads are packed from the start so we only upload those (the rest of the slot is never drawn).
+		int size = quadCount * MERGED_QUAD_BYTES;
+		if (size > 0)
+		{
+			((java.nio.Buffer) data).limit(size);
+			((java.nio.Buffer) data).position(0);
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+			_gl.glBufferSubData(GL20.GL_ARRAY_BUFFER, 0, size, data);
+		}
+		((java.nio.Buffer) data).clear();
+	}
+
+	private int _bakedQuadCount(ByteBuffer scratchBuffer)
+	{
+		// In the MERGED_MESH format, the baker leaves the buffer positioned after the last quad (see LayerBaker.bakeRows()).
+		return (LayerFormat.MERGED_MESH == _format)
+				? (scratchBuffer.position() / MERGED_QUAD_BYTES)
+				: (CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT)
+		;
+	}
+
+	private void _patchBufferData(int buffer, ByteBuffer data, int firstRow, int lastRow)
+	{
+		// Note that the backend uploads whatever remains in the buffer so we need to set the limit, not just the position.
+		int offset = firstRow * SINGLE_LAYER_ROW_BUFFER_BYTES;
+		int size = (lastRow - firstRow + 1) * SINGLE_LAYER_ROW_BUFFER_BYTES;
+		((java.nio.Buffer) data).limit(offset + size);
+		((java.nio.Buffer) data).position(offset);
+		
+		_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+		_gl.glBufferSubData(GL20.GL_ARRAY_BUFFER, offset, size, data);
+		((java.nio.Buffer) data).clear();
+	}
+
+	private void _patchTextureData(int texture, ByteBuffer data, int firstRow, int lastRow)
+	{
+		// Each row of tiles is one row of texels so we can replace just the rows we re-baked.
+		int offset = firstRow * SINGLE_LAYER_DATA_ROW_BYTES;
+		int rowCount = lastRow - firstRow + 1;
+		((java.nio.Buffer) data).limit(offset + (rowCount * SINGLE_LAYER_DATA_ROW_BYTES));
+		((java.nio.Buffer) data).position(offset);
+		
+		_gl.glActiveTexture(GL20.GL_TEXTURE0 + DATA_TEXTURE_UNIT);
+		_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+		_gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, firstRow, CUBOID_EDGE_TILE_COUNT, rowCount, GL20.GL_LUMINANCE_ALPHA, GL20.GL_UNSIGNED_BYTE, data);
+		((java.nio.Buffer) data).clear();
+	}
+
+	private static int _layerBitInCuboid(CuboidAddress address, int absoluteZ)
+	{
+		// The bit for the layer at absoluteZ, if it is in this cuboid, or 0 if it is in another cuboid of the column.
+		int relativeZ = absoluteZ - address.getBase().z();
+		return ((relativeZ >= 0) && (relativeZ < CUBOID_EDGE_TILE_COUNT))
+				? (1 << relativeZ)
+				: 0
+		;
+	}
+
+	private void _invalidateColumnTop(CuboidAddress address, byte x, byte y, int absoluteZ, ColumnHeightMap heightMap)
+	{
+		// The top of a column can be in a different cuboid so find where this is.
+		AbsoluteLocation base = address.getBase();
+		AbsoluteLocation top = new AbsoluteLocation(base.x() + x, base.y() + y, absoluteZ);
+		_CuboidMeshes topTextures = _layerTextureMeshes.get(top.getCuboidAddress());
+		if (null != topTextures)
+		{
+			// The height map is shared by the whole column so make sure this cuboid sees the update.
+			topTextures.heightMap = heightMap;
+			topTextures.invalidateLight(top.getBlockAddress().z(), y + 1, y + 1);
+		}
+	}
+
+	private void _fillLightRows(CuboidAddress address, _CuboidMeshes cuboidTextures, byte zLayer, int firstRow, int lastRow)
+	{
+		IReadOnlyCuboidData aboveCuboid = null;
+		if ((CUBOID_EDGE_TILE_COUNT - 1) == zLayer)
+		{
+			_CuboidMeshes aboveTextures = _layerTextureMeshes.get(address.getRelative(0, 0, 1));
+			aboveCuboid = (null != aboveTextures) ? aboveTextures.data : null;
+		}
+		_CuboidMeshes xCuboidPlusMesh  = _layerTextureMeshes.get(address.getRelative( 1, 0, 0));
+		_CuboidMeshes xCuboidMinusMesh = _layerTextureMeshes.get(address.getRelative(-1, 0, 0));
+		_CuboidMeshes yCuboidPlusMesh  = _layerTextureMeshes.get(address.getRelative(0,  1, 0));
+		_CuboidMeshes yCuboidMinusMesh = _layerTextureMeshes.get(address.getRelative(0, -1, 0));
+		((java.nio.Buffer) _lightScratch).clear();
+		LightPlane.fillRows(_lightScratch
+				, cuboidTextures.data
+				, aboveCuboid
+				, (null != xCuboidPlusMesh)  ? xCuboidPlusMesh.data  : null
+				, (null != xCuboidMinusMesh) ? xCuboidMinusMesh.data : null
+				, (null != yCuboidPlusMesh)  ? yCuboidPlusMesh.data  : null
+				, (null != yCuboidMinusMesh) ? yCuboidMinusMesh.data : null
+				, cuboidTextures.heightMap
+				, zLayer
+				, firstRow
+				, lastRow
+		);
+		((java.nio.Buffer) _lightScratch).flip();
+	}
+
+	private void _refreshTransientLight(CuboidAddress address, _CuboidMeshes cuboidTextures, byte zLayer)
+	{
+		// The overlay doesn't read the light textures so its tiles in this layer take the new light from here.
+		for (BlockAddress block : new ArrayList<>(cuboidTextures.transientTiles.keySet()))
+		{
+			if (zLayer == block.z())
+			{
+				_updateTransientTile(address, cuboidTextures, block);
+			}
+		}
+	}
+
+	private static boolean _isLightChanged(IReadOnlyCuboidData oldCuboid, ColumnHeightMap oldHeightMap, IReadOnlyCuboidData newCuboid, ColumnHeightMap newHeightMap, BlockAddress block)
+	{
+		return (oldCuboid.getData7(AspectRegistry.LIGHT, block) != newCuboid.getData7(AspectRegistry.LIGHT, block))
+				|| (oldHeightMap.getHeight(block.x(), block.y()) != newHeightMap.getHeight(block.x(), block.y()))
+		;
+	}
+
+	private void _updateTransientTile(CuboidAddress address, _CuboidMeshes cuboidTextures, BlockAddress block)
+	{
+		TextureAtlas.Auxiliary aux = _baker.transientAux(cuboidTextures.data, block);
+		if (null != aux)
+		{
+			cuboidTextures.transientTiles.put(block, _litTile(address, cuboidTextures, block, aux));
+		}
+		else
+		{
+			cuboidTextures.transientTiles.remove(block);
+		}
+	}
+
+	private TransientTile _litTile(CuboidAddress address, _CuboidMeshes cuboidTextures, BlockAddress block, TextureAtlas.Auxiliary aux)
+	{
+		// The overlay doesn't read the light textures so we compute the light the same way as their shaders:  The max of
+		// the block above and the adjacent blocks (which may be in other cuboids).
+		AbsoluteLocation location = address.getBase().getRelative(block.x(), block.y(), block.z());
+		byte light = (byte)Math.max(Math.max(_lightAt(location.getRelative(0, 0, 1)), _lightAt(location.getRelative( 1, 0, 0)))
+				, Math.max(Math.max(_lightAt(location.getRelative(-1, 0, 0)), _lightAt(location.getRelative(0,  1, 0))), _lightAt(location.getRelative(0, -1, 0)))
+		);
+		boolean isSky = (location.z() == cuboidTextures.heightMap.getHeight(block.x(), block.y()));
+		return new TransientTile(block, aux, light, isSky);
+	}
+
+	private byte _lightAt(AbsoluteLocation location)
+	{
+		_CuboidMeshes cuboidTextures = _layerTextureMeshes.get(location.getCuboidAddress());
+		return (null != cuboidTextures)
+				? cuboidTextures.data.getData7(AspectRegistry.LIGHT, location.getBlockAddress())
+				: 0
+		;
+	}
+
+	private void _invalidateDependentNeighbours(CuboidAddress address, Set<BlockAddress> changedBlocks)
+	{
+		// Each adjacent cuboid reads the edge of this one which faces it into the border of its light textures:  West reads
+		// our x=0 column into its east border, south reads our y=0 row into its north border (row 33), and so on.  The
+		// cuboid below reads our z=0 layer as the light above its z=31 layer.  Note that these are light texture rows,
+		// which are offset by the border.
+		_CuboidMeshes east = _layerTextureMeshes.get(address.getRelative( 1, 0, 0));
+		_CuboidMeshes west = _layerTextureMeshes.get(address.getRelative(-1, 0, 0));
+		_CuboidMeshes north = _layerTextureMeshes.get(address.getRelative(0,  1, 0));
+		_CuboidMeshes south = _layerTextureMeshes.get(address.getRelative(0, -1, 0));
+		_CuboidMeshes below = _layerTextureMeshes.get(address.getRelative(0, 0, -1));
+		int lastIndex = CUBOID_EDGE_TILE_COUNT - 1;
+		int lastRow = LightPlane.TEXTURE_EDGE - 1;
+		if (null != changedBlocks)
+		{
+			// We know which blocks changed so only the texels facing those need to be patched.
+			for (BlockAddress block : changedBlocks)
+			{
+				byte x = block.x();
+				byte y = block.y();
+				byte z = block.z();
+				if (0 == x)
+				{
+					_invalidateIfDependent(west, z, DEPENDS_X_PLUS, y + 1, y + 1);
+				}
+				if (lastIndex == x)
+				{
+					_invalidateIfDependent(east, z, DEPENDS_X_MINUS, y + 1, y + 1);
+				}
+				if (0 == y)
+				{
+					_invalidateIfDependent(south, z, DEPENDS_Y_PLUS, lastRow, lastRow);
+				}
+				if (lastIndex == y)
+				{
+					_invalidateIfDependent(north, z, DEPENDS_Y_MINUS, 0, 0);
+				}
+				if (0 == z)
+				{
+					_invalidateIfDependent(below, lastIndex, DEPENDS_ABOVE, y + 1, y + 1);
+				}
+			}
+		}
+		else
+		{
+			// This cuboid is new or replaced so the entire facing border of every dependent light texture needs to be patched.
+			for (int z = 0; z < CUBOID_EDGE_TILE_COUNT; ++z)
+			{
+				_invalidateIfDependent(west, z, DEPENDS_X_PLUS, 1, CUBOID_EDGE_TILE_COUNT);
+				_invalidateIfDependent(east, z, DEPENDS_X_MINUS, 1, CUBOID_EDGE_TILE_COUNT);
+				_invalidateIfDependent(south, z, DEPENDS_Y_PLUS, lastRow, lastRow);
+				_invalidateIfDependent(north, z, DEPENDS_Y_MINUS, 0, 0);
+			}
+			_invalidateIfDependent(below, lastIndex, DEPENDS_ABOVE, 1, CUBOID_EDGE_TILE_COUNT);
+		}
+	}
+
+	private void _invalidateIfDependent(_CuboidMeshes neighbour, int zLayer, byte dependency, int firstRow, int lastRow)
+	{
+		// Light textures which were never built (or were evicted) will read the current neighbour when they are eventually drawn.
+		if ((null != neighbour) && (0 != (neighbour.neighbourDependencies[zLayer] & dependency)))
+		{
+			neighbour.invalidateLight(zLayer, firstRow, lastRow);
+			_neighbourInvalidations += 1L;
+		}
+	}
+
+	private AbsoluteLocation _getFocus()
+	{
+		return _focus;
+	}
+
+	private void _enqueueRequest(_RenderRequest request)
+	{
+		// We never wait for room in the ring:  If it is full (or we already have requests waiting for room, which must go
+		// first), we hold this until the next frame.
+		if (!_overflowRequests.isEmpty() || !_requestInbox.offer(request))
+		{
+			_overflowRequests.add(request);
+		}
+		_workSignal.release();
+	}
+
+	private void _flushOverflowRequests()
+	{
+		boolean didMove = false;
+		while (!_overflowRequests.isEmpty() && _requestInbox.offer(_overflowRequests.peek()))
+		{
+			_overflowRequests.poll();
+			didMove = true;
+		}
+		if (didMove)
+		{
+			_workSignal.release();
+		}
+	}
+
+	private _RenderResponse _dequeueResponse()
+	{
+		// We start from a different ring each time so that one busy background thread can't starve the others' responses.
+		_RenderResponse response = null;
+		for (int i = 0; (null == response) && (i < _responses.length); ++i)
+		{
+			response = _responses[(_nextResponseRing + i) % _responses.length].poll();
+		}
+		_nextResponseRing = (_nextResponseRing + 1) % _responses.length;
+		return response;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SpscRingBuffer<_RenderResponse>[] _createResponseRings(int threadCount)
+	{
+		SpscRingBuffer<_RenderResponse>[] rings = new SpscRingBuffer[threadCount];
+		for (int i = 0; i < threadCount; ++i)
+		{
+			rings[i] = new SpscRingBuffer<>(RESPONSE_RING_CAPACITY);
+		}
+		return rings;
+	}
+
+	private void _returnScratchBuffer(ByteBuffer scratchBuffer)
+	{
+		boolean didAdd = _scratchGraphicsBuffers.offer(scratchBuffer);
+		Assert.assertTrue(didAdd);
+		_workSignal.release();
+	}
+
+	private static Comparator<_RenderRequest> _requestComparator(AbsoluteLocation focus)
+	{
+		// Note that this captures the focus so the queue must be rebuilt whenever the focus changes.
+		// Pre-bake requests are always ordered after everything else.
+		return (_RenderRequest one, _RenderRequest two) -> (one.isPrefetch != two.isPrefetch)
+				? Boolean.compare(one.isPrefetch, two.isPrefetch)
+				: Long.compare(_distanceFromFocus(focus, one.layerCentre), _distanceFromFocus(focus, two.layerCentre))
+		;
+	}
+
+	private static long _distanceFromFocus(AbsoluteLocation focus, AbsoluteLocation location)
+	{
+		long distance = 0L;
+		if (null != focus)
+		{
+			long x = location.x() - focus.x();
+			long y = location.y() - focus.y();
+			long z = Z_DISTANCE_WEIGHT * (location.z() - focus.z());
+			distance = (x * x) + (y * y) + (z * z);
+		}
+		return distance;
+	}
+
+
+	private static class _CuboidMeshes
+	{
+		public IReadOnlyCuboidData data;
+		public ColumnHeightMap heightMap;
+		// The layer generations and removed flag are also read by the background threads, to drop stale requests.
+		public final AtomicIntegerArray layerGeneration;
+		public volatile boolean isRemoved;
+		public final int[] buffersByZ;
+		// The uniform signature of each layer using a shared buffer (NOT_UNIFORM if the buffer is its own).
+		public final int[] uniformSignatureByZ;
+		// The bit mask of opaque tiles in each row of each layer, as currently baked.
+		public final int[][] opaqueRowsByZ;
+		// The number of quads in each layer's buffer, as currently baked.
+		public final int[] quadCountByZ;
+		// The number of the frame where each layer was last drawn (used to pick what to evict).
+		public final long[] lastDrawnFrame;
+		// The light texture of each layer (0 if not built or evicted).
+		public final int[] lightTexturesByZ;
+		// The inclusive range of rows of each light texture which need to be patched (empty if first > last).
+		public final byte[] lightDirtyFirst;
+		public final byte[] lightDirtyLast;
+		// The DEPENDS_* bits of the adjacent cuboids each light texture read from when it was built (0 if not built).
+		public final byte[] neighbourDependencies;
+		// The placeholder texture of each layer (0 if not needed) and the layerGeneration it was built from (0 if not built).
+		public final int[] placeholderTexturesByZ;
+		public final int[] placeholderGeneration;
+		// The tiles of any layer which show a transient aux texture, drawn over the baked layers.
+		public final Map<BlockAddress, TransientTile> transientTiles;
+		public final int[] bufferGeneration;
+		public final boolean[] isInFlight;
+		// The inclusive range of rows in each layer which need to be re-baked (empty if first > last).
+		public final byte[] dirtyRowFirst;
+		public final byte[] dirtyRowLast;
+		
+		public _CuboidMeshes(IReadOnlyCuboidData data, ColumnHeightMap heightMap)
+		{
+			this.data = data;
+			this.heightMap = heightMap;
+			this.layerGeneration = new AtomicIntegerArray(32);
+			this.isRemoved = false;
+			this.buffersByZ = new int[32];
+			this.uniformSignatureByZ = new int[32];
+			this.opaqueRowsByZ = new int[32][32];
+			this.quadCountByZ = new int[32];
+			this.lastDrawnFrame = new long[32];
+			this.lightTexturesByZ = new int[32];
+			this.lightDirtyFirst = new byte[32];
+			this.lightDirtyLast = new byte[32];
+			this.neighbourDependencies = new byte[32];
+			this.placeholderTexturesByZ = new int[32];
+			this.placeholderGeneration = new int[32];
+			this.transientTiles = new HashMap<>();
+			this.bufferGeneration = new int[32];
+			this.isInFlight = new boolean[32];
+			this.dirtyRowFirst = new byte[32];
+			this.dirtyRowLast = new byte[32];
+			for (int z = 0; z < 32; ++z)
+			{
+				// 0 is the "never requested" generation so we start everything at 1.
+				this.layerGeneration.set(z, 1);
+				this.uniformSignatureByZ[z] = LayerBaker.NOT_UNIFORM;
+				this.dirtyRowLast[z] = 31;
+				clearLightRows(z);
+			}
+		}
+		
+		public void invalidateRows(int zLayer, int firstRow, int lastRow)
+		{
+			this.layerGeneration.incrementAndGet(zLayer);
+			mergeDirtyRows(zLayer, firstRow, lastRow);
+		}
+		
+		public void mergeDirtyRows(int zLayer, int firstRow, int lastRow)
+		{
+			this.dirtyRowFirst[zLayer] = (byte)Math.max(0, Math.min(this.dirtyRowFirst[zLayer], firstRow));
+			this.dirtyRowLast[zLayer] = (byte)Math.min(31, Math.max(this.dirtyRowLast[zLayer], lastRow));
+		}
+		
+		public void clearDirtyRows(int zLayer)
+		{
+			this.dirtyRowFirst[zLayer] = 32;
+			this.dirtyRowLast[zLayer] = -1;
+		}
+		
+		public void invalidateLight(int zLayer, int firstRow, int lastRow)
+		{
+			// (this is harmless if there is no light texture, since it is built in full and then cleared).
+			this.lightDirtyFirst[zLayer] = (byte)Math.max(0, Math.min(this.lightDirtyFirst[zLayer], firstRow));
+			this.lightDirtyLast[zLayer] = (byte)Math.min(LightPlane.TEXTURE_EDGE - 1, Math.max(this.lightDirtyLast[zLayer], lastRow));
+		}
+		
+		public void clearLightRows(int zLayer)
+		{
+			this.lightDirtyFirst[zLayer] = LightPlane.TEXTURE_EDGE;
+			this.lightDirtyLast[zLayer] = -1;
+		}
+	}
+
+
+	private static class _SharedLayer
+	{
+		public final int buffer;
+		public int referenceCount;
+		
+		public _SharedLayer(int buffer)
+		{
+			this.buffer = buffer;
+			this.referenceCount = 0;
+		}
+	}
+
+
+	private static record _EvictionCandidate(_CuboidMeshes meshes
+			, int zLayer
+			, long lastDrawnFrame
+			, int zDistance
+	)
+	{}
+
+
+	/**
+	 * The type we pass in when asking for a layer (or a batch of adjacent layers) to be rendered by the background thread.
+	 * This includes all of the information that the thread might need (all read-only data which may become stale but
+	 * never invalid).
+	 * -meshes - The owning meshes object (the background threads only use this to check if the request is stale)
+	 * -generations - The layerGeneration of each layer in meshes when the request was created (indexed from firstLayer)
+	 * -layerCentre - The absolute location of the centre of the middle layer (used for prioritization)
+	 * -data - The data for the cuboid being rendered
+	 * -firstLayer - The first z-layer to render in this request, relative to data ([0..31])
+	 * -lastLayer - The last z-layer to render in this request, relative to data ([0..31], inclusive)
+	 * -firstRow - The first row (y) of each layer to render in this request
+	 * -lastRow - The last row (y) of each layer to render in this request (inclusive)
+	 * -isPrefetch - True if this is a low-priority pre-bake, not requested by getBakedLayer()
+	 * -requestNanos - The System.nanoTime() when the request was created (for telemetry)
+	 */
+	private static record _RenderRequest(_CuboidMeshes meshes
+			, int[] generations
+			, AbsoluteLocation layerCentre
+			, IReadOnlyCuboidData data
+			, byte firstLayer
+			, byte lastLayer
+			, byte firstRow
+			, byte lastRow
+			, boolean isPrefetch
+			, long requestNanos
+	)
+	{}
+
+	/**
+	 * A request which a background thread has assigned scratch buffers.  It is passed back to the foreground thread
+	 * once the buffers are populated.
+	 * -request - The original request
+	 * -scratchBuffers - The buffers to use as temporary space for writing and uploading each layer (null if cancelled)
+	 * -uniformSignatures - The uniform signature each layer baked to, or NOT_UNIFORM (null if cancelled)
+	 * -opaqueRows - The bit mask of opaque tiles in each baked row of each layer (null if cancelled)
+	 * -transientTiles - The addresses of the tiles with a transient aux texture found in each layer (null if cancelled)
+	 */
+	private static record _RenderResponse(_RenderRequest request
+			, ByteBuffer[] scratchBuffers
+			, int[] uniformSignatures
+			, int[][] opaqueRows
+			, List<List<BlockAddress>> transientTiles
+	)
+	{}
+
+
+	/**
+	 * The counters describing how well the VRAM budget fits the layers being drawn.
+	 * 
+	 * @param hits The number of times a layer was drawn from a baked buffer.
+	 * @param misses The number of times a layer couldn't be drawn since it wasn't baked (new, evicted, or pending).
+	 * @param evictions The number of layers evicted to stay within the budget.
+	 * @param residentBytes The GPU memory currently used by baked layers.
+	 * @param budgetBytes The budget for residentBytes.
+	 */
+	public static record ResidencyCounters(long hits
+			, long misses
+			, long evictions
+			, long residentBytes
+			, long budgetBytes
+	) {}
+
+	/**
+	 * The counters describing how many vertices the baked layers need.
+	 * 
+	 * @param layers The number of full layers uploaded.
+	 * @param vertices The number of vertices in those layers.
+	 */
+	public static record VertexCounters(long layers
+			, long vertices
+	) {}
+
+	/**
+	 * A tile which needs a transient aux texture drawn over its baked layer.
+	 * 
+	 * @param block The address of the block within its cuboid.
+	 * @param aux The aux texture to draw.
+	 * @param light The block light of the tile (0-15), as the layer shaders compute it.
+	 * @param isSky True if the tile is the top of its column, so it also receives sky light.
+	 */
+	public static record TransientTile(BlockAddress block
+			, TextureAtlas.Auxiliary aux
+			, byte light
+			, boolean isSky
+	) {}
 }
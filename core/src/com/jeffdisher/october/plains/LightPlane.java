@@ -0,0 +1,115 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.ByteBuffer;
+
+import com.jeffdisher.october.aspects.AspectRegistry;
+import com.jeffdisher.october.data.ColumnHeightMap;
+import com.jeffdisher.october.data.IReadOnlyCuboidData;
+
+
+/**
+ * Builds the light texture of a layer, which the layer shaders in RenderSupport use to compute the light of each tile
+ * (the max of the block light above and of the 4 adjacent blocks, plus the sky light if it is the top of its column).
+ * Since the light is no longer baked into the layer, a change to the light only needs to update a few rows of this
+ * texture, instead of re-baking the layer.
+ * The texture is TEXTURE_EDGE texels square:  The layer with a 1-tile border on each side to hold the edges of the
+ * adjacent cuboids (texel (x+1, y+1) is the tile (x, y)).  Each texel is RGBA:
+ * -r - The LIGHT of the block, scaled to the byte range
+ * -g - The LIGHT of the block above, scaled to the byte range (0 in the border)
+ * -b - 0xFF if the block is the top of its column, otherwise 0 (0 in the border)
+ * -a - Unused (0xFF)
+ */
+public class LightPlane
+{
+	public static final int EDGE = LayerManager.CUBOID_EDGE_TILE_COUNT;
+	public static final int TEXTURE_EDGE = EDGE + 2;
+	public static final int TEXEL_BYTES = 4;
+	public static final int ROW_BYTES = TEXTURE_EDGE * TEXEL_BYTES;
+	public static final int TEXTURE_BYTES = TEXTURE_EDGE * ROW_BYTES;
+
+	/**
+	 * Fills the given rows of the light texture of a layer into target, starting at its current position.
+	 * 
+	 * @param target The buffer to fill (must have room for the rows).
+	 * @param cuboid The cuboid containing the layer.
+	 * @param aboveCuboid The cuboid above (only needed for z-level 31 - can be null).
+	 * @param xCuboidPlus The cuboid to the east (can be null).
+	 * @param xCuboidMinus The cuboid to the west (can be null).
+	 * @param yCuboidPlus The cuboid to the north (can be null).
+	 * @param yCuboidMinus The cuboid to the south (can be null).
+	 * @param heightMap The height map of the cuboid's column.
+	 * @param zLayer The z-level of the layer within the cuboid.
+	 * @param firstTextureRow The first row of the texture to fill ([0..TEXTURE_EDGE-1], including the border).
+	 * @param lastTextureRow The last row of the texture to fill (inclusive).
+	 */
+	public static void fillRows(ByteBuffer target
+			, IReadOnlyCuboidData cuboid
+			, IReadOnlyCuboidData aboveCuboid
+			, IReadOnlyCuboidData xCuboidPlus
+			, IReadOnlyCuboidData xCuboidMinus
+			, IReadOnlyCuboidData yCuboidPlus
+			, IReadOnlyCuboidData yCuboidMinus
+			, ColumnHeightMap heightMap
+			, byte zLayer
+			, int firstTextureRow
+			, int lastTextureRow
+	)
+	{
+		IReadOnlyCuboidData aboveSource = ((EDGE - 1) != zLayer) ? cuboid : aboveCuboid;
+		int aboveZ = ((EDGE - 1) != zLayer) ? (zLayer + 1) : 0;
+		int layerAbsoluteZ = (cuboid.getCuboidAddress().z() * EDGE) + zLayer;
+		for (int row = firstTextureRow; row <= lastTextureRow; ++row)
+		{
+			int y = row - 1;
+			if (y < 0)
+			{
+				// The top edge of the cuboid to the south (the corners are never read).
+				_putBorderRow(target, yCuboidMinus, EDGE - 1, zLayer);
+			}
+			else if (EDGE == y)
+			{
+				// The bottom edge of the cuboid to the north.
+				_putBorderRow(target, yCuboidPlus, 0, zLayer);
+			}
+			else
+			{
+				// The west edge, the row itself, then the east edge.
+				_putTexel(target, _light(xCuboidMinus, EDGE - 1, y, zLayer), 0, false);
+				for (int x = 0; x < EDGE; ++x)
+				{
+					boolean isSky = (layerAbsoluteZ == heightMap.getHeight(x, y));
+					_putTexel(target, _light(cuboid, x, y, zLayer), _light(aboveSource, x, y, aboveZ), isSky);
+				}
+				_putTexel(target, _light(xCuboidPlus, 0, y, zLayer), 0, false);
+			}
+		}
+	}
+
+
+	private static void _putBorderRow(ByteBuffer target, IReadOnlyCuboidData source, int y, byte zLayer)
+	{
+		_putTexel(target, 0, 0, false);
+		for (int x = 0; x < EDGE; ++x)
+		{
+			_putTexel(target, _light(source, x, y, zLayer), 0, false);
+		}
+		_putTexel(target, 0, 0, false);
+	}
+
+	private static byte _light(IReadOnlyCuboidData source, int x, int y, int z)
+	{
+		return (null != source)
+				? source.getData7(AspectRegistry.LIGHT, LayerBaker.getAddress(x, y, z))
+				: 0
+		;
+	}
+
+	private static void _putTexel(ByteBuffer target, int light, int aboveLight, boolean isSky)
+	{
+		// Light is 0-15 so 17 maps it exactly onto the normalized byte range (the shader adds MINIMUM_LIGHT).
+		target.put((byte)(light * 17));
+		target.put((byte)(aboveLight * 17));
+		target.put(isSky ? (byte)0xFF : 0);
+		target.put((byte)0xFF);
+	}
+}
@@ -2,6 +2,9 @@ package com.jeffdisher.october.plains;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -10,6 +13,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input.Keys;
 import com.badlogic.gdx.InputAdapter;
 import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.aspects.Aspect;
 import com.jeffdisher.october.aspects.Environment;
 import com.jeffdisher.october.data.ColumnHeightMap;
 import com.jeffdisher.october.data.IReadOnlyCuboidData;
@@ -32,7 +36,11 @@ public class OctoberPlains extends ApplicationAdapter
 	private final WorldCache _worldCache = new WorldCache();
 	private final String _clientName;
 	private final InetSocketAddress _serverSocketAddress;
+	private final LayerManager.LayerFormat _layerFormat;
+	private final long _vramBudgetBytes;
+	private final int _prefetchBudget;
 
+	private CachingGL20 _gl;
 	private Environment _environment;
 	private TextureAtlas _textureAtlas;
 	private AudioManager _audioManager;
@@ -48,6 +56,9 @@ public class OctoberPlains extends ApplicationAdapter
 		_CommandLineOptions options = _parseServerSocketAddress(commandLineArgs);
 		_clientName = options.clientName;
 		_serverSocketAddress = options.serverAddress;
+		_layerFormat = options.layerFormat;
+		_vramBudgetBytes = options.vramBudgetBytes;
+		_prefetchBudget = options.prefetchBudget;
 	}
 
 	@Override
@@ -56,8 +67,9 @@ public class OctoberPlains extends ApplicationAdapter
 		// Start up the shared environment.
 		_environment = Environment.createSharedInstance();
 		
-		// Get the GLES20 context.
-		GL20 gl = Gdx.graphics.getGL20();
+		// Get the GLES20 context (everything uses it through the caching wrapper so that redundant state changes are dropped).
+		_gl = new CachingGL20(Gdx.graphics.getGL20());
+		GL20 gl = _gl;
 		
 		// Load all on-disk resources (these are considered essential so failure is fatal).
 		try
@@ -99,7 +111,9 @@ public class OctoberPlains extends ApplicationAdapter
 		}
 		
 		// Create the generic render support class.
-		_renderer = new RenderSupport(_environment, gl, _textureAtlas);
+		_renderer = new RenderSupport(_environment, gl, _textureAtlas, _layerFormat);
+		_renderer.setVramBudget(_vramBudgetBytes);
+		_renderer.setPrefetchBudget(_prefetchBudget);
 		
 		// Create the window manager.
 		_windowManager = new WindowManager(_environment, gl, _textureAtlas, (AbsoluteLocation location) -> {
@@ -109,9 +123,9 @@ public class OctoberPlains extends ApplicationAdapter
 		// At this point, we can also create the basic OctoberProject client and testing environment.
 		_client = new ClientLogic(_environment
 				, (Entity authoritativeEntity, Entity projectedEntity) -> {
-					// The renderer and the mouse only want the projected location.
+					// The renderer and the mouse only want the projected location (the renderer also uses the velocity to predict which layers to pre-bake).
 					EntityLocation projectedLocation = projectedEntity.location();
-					_renderer.setThisEntityLocation(projectedLocation);
+					_renderer.setThisEntityLocation(projectedLocation, projectedEntity.velocity());
 					_audioManager.setThisEntity(authoritativeEntity, projectedEntity);
 					_mouseHandler.setCentreLocation(projectedLocation);
 					
@@ -129,11 +143,11 @@ public class OctoberPlains extends ApplicationAdapter
 					_audioManager.removeOtherEntity(entityId);
 					_mouseHandler.removeOtherEntity(entityId);
 				}
-				, (IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks) -> {
+				, (IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks, Set<Aspect<?, ?>> changedAspects) -> {
 					// Update our data cache.
 					_worldCache.setCuboid(cuboid);
-					// Notify the renderer to redraw this cuboid.
-					_renderer.setOneCuboid(cuboid, heightMap);
+					// Notify the renderer to redraw this cuboid (it only needs to re-bake what changed).
+					_renderer.setOneCuboid(cuboid, heightMap, changedBlocks, changedAspects);
 				}
 				, (CuboidAddress address) -> {
 					// Delete thie from our cache.
@@ -265,6 +279,14 @@ public class OctoberPlains extends ApplicationAdapter
 		{
 			_windowManager.closeAllWindows();
 		}
+		if (Gdx.input.isKeyJustPressed(Keys.M))
+		{
+			_renderer.toggleSurfaceMode();
+		}
+		if (Gdx.input.isKeyJustPressed(Keys.F3))
+		{
+			_printRenderCounters();
+		}
 		
 		// It looks like we may have to match these individually (arguably, assuming a relationship between them is wrong, anyway).
 		if (Gdx.input.isKeyJustPressed(Keys.NUM_1))
@@ -434,8 +456,69 @@ public class OctoberPlains extends ApplicationAdapter
 	}
 
 
+	private void _printRenderCounters()
+	{
+		// This is a debugging aid (F3) so we just dump everything to the console.
+		RenderSupport.LayerCounters counters = _renderer.getLayerCounters();
+		BakeTelemetry.Snapshot telemetry = counters.telemetry();
+		System.out.println("Bake queue: " + telemetry.queueDepth() + " waiting, " + telemetry.pendingUploads() + " pending upload, "
+				+ telemetry.freeScratchBuffers() + " free scratch buffers, " + telemetry.scratchStarvations() + " starved, "
+				+ telemetry.staleDiscards() + " stale, " + telemetry.uploads() + " uploaded"
+		);
+		System.out.println("Bake times (us buckets " + Arrays.toString(BakeTelemetry.BUCKET_LIMITS_MICROS) + "): " + Arrays.toString(telemetry.bakeTimeHistogram()));
+		System.out.println("Upload latencies: " + Arrays.toString(telemetry.uploadLatencyHistogram()));
+		LayerBufferPool.Counters pool = counters.bufferPool();
+		System.out.println("Buffer pool: " + pool.poolSize() + " slots, " + pool.freeSlots() + " free, " + pool.allocationsAvoided() + " allocations avoided");
+		LayerManager.ResidencyCounters residency = counters.residency();
+		System.out.println("Residency: " + residency.hits() + " hits, " + residency.misses() + " misses, " + residency.evictions() + " evictions, "
+				+ residency.residentBytes() + " / " + residency.budgetBytes() + " bytes"
+		);
+		System.out.println("Uploaded: " + counters.vertices().layers() + " layers, " + counters.vertices().vertices() + " vertices");
+		System.out.println("Invalidations: " + counters.neighbourInvalidations() + " light textures by neighbours, " + counters.skippedBakes() + " skipped bakes");
+		RenderSupport.LayerDrawCounters draws = counters.draws();
+		System.out.println("Last frame: " + draws.layers() + " layers, " + draws.placeholders() + " placeholders, " + draws.drawCalls() + " draw calls, "
+				+ draws.layoutSetups() + " layout setups"
+		);
+		CachingGL20.Counters gl = _gl.getCounters();
+		System.out.println("GL state calls: " + gl.forwardedCalls() + " forwarded, " + gl.avoidedCalls() + " dropped as redundant");
+	}
+
 	private static _CommandLineOptions _parseServerSocketAddress(String[] commandLineArgs)
 	{
+		// The rendering flags are optional and can follow the mode (so the rendering paths can be compared and tuned).
+		LayerManager.LayerFormat layerFormat = LayerManager.LayerFormat.VERTEX_MESH;
+		long vramBudgetBytes = LayerManager.DEFAULT_VRAM_BUDGET_BYTES;
+		int prefetchBudget = LayerManager.DEFAULT_PREFETCH_BUDGET;
+		List<String> modeArgs = new ArrayList<>();
+		for (int i = 0; i < commandLineArgs.length; ++i)
+		{
+			String arg = commandLineArgs[i];
+			boolean hasValue = ((i + 1) < commandLineArgs.length);
+			if ("--data-texture-layers".equals(arg))
+			{
+				layerFormat = LayerManager.LayerFormat.DATA_TEXTURE;
+			}
+			else if ("--merged-layers".equals(arg))
+			{
+				layerFormat = LayerManager.LayerFormat.MERGED_MESH;
+			}
+			else if ("--vram-budget-mb".equals(arg) && hasValue)
+			{
+				vramBudgetBytes = Long.parseLong(commandLineArgs[i + 1]) * 1024L * 1024L;
+				i += 1;
+			}
+			else if ("--prefetch-budget".equals(arg) && hasValue)
+			{
+				prefetchBudget = Integer.parseInt(commandLineArgs[i + 1]);
+				i += 1;
+			}
+			else
+			{
+				modeArgs.add(arg);
+			}
+		}
+		commandLineArgs = modeArgs.toArray(new String[modeArgs.size()]);
+		
 		// Check the first arg for the mode.
 		_CommandLineOptions options;
 		// (we probably want to handle this parsing and validation elsewhere or differently but this will get us going without over-designing).
@@ -443,7 +526,7 @@ public class OctoberPlains extends ApplicationAdapter
 		{
 			if ("--single".equals(commandLineArgs[0]))
 			{
-				options = new _CommandLineOptions("Local", null);
+				options = new _CommandLineOptions("Local", null, layerFormat, vramBudgetBytes, prefetchBudget);
 			}
 			else if ("--multi".equals(commandLineArgs[0]))
 			{
@@ -453,7 +536,7 @@ public class OctoberPlains extends ApplicationAdapter
 					String host = commandLineArgs[2];
 					int port = Integer.parseInt(commandLineArgs[3]);
 					System.out.println("Resolving host: " + host);
-					options = new _CommandLineOptions(clientName, new InetSocketAddress(host, port));
+					options = new _CommandLineOptions(clientName, new InetSocketAddress(host, port), layerFormat, vramBudgetBytes, prefetchBudget);
 				}
 				else
 				{
@@ -474,7 +557,7 @@ public class OctoberPlains extends ApplicationAdapter
 
 	private static RuntimeException _usageError()
 	{
-		System.err.println("Args:  (--single)|(--multi user_name host port)");
+		System.err.println("Args:  (--single)|(--multi user_name host port) [--data-texture-layers]|[--merged-layers] [--vram-budget-mb megabytes] [--prefetch-budget layers]");
 		System.exit(1);
 		return null;
 	}
@@ -482,5 +565,8 @@ public class OctoberPlains extends ApplicationAdapter
 
 	private static record _CommandLineOptions(String clientName
 			, InetSocketAddress serverAddress
+			, LayerManager.LayerFormat layerFormat
+			, long vramBudgetBytes
+			, int prefetchBudget
 	) {}
 }
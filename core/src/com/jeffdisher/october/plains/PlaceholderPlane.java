@@ -0,0 +1,63 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.ByteBuffer;
+
+import com.jeffdisher.october.aspects.AspectRegistry;
+import com.jeffdisher.october.data.ColumnHeightMap;
+import com.jeffdisher.october.data.IReadOnlyCuboidData;
+
+
+/**
+ * Builds the placeholder texture of a layer, which RenderSupport draws in place of the layer until its bake arrives, so
+ * that a backed-up bake queue shows a coarse version of the scene instead of holes.
+ * This is cheap enough to build synchronously on the main thread:  Each tile is a single texel, the average colour of
+ * its block's texture (see TextureAtlas.tileTextureAverageColour), darkened unless the block is the top of its column
+ * (according to the ColumnHeightMap).  The texture is EDGE texels square (texel (x, y) is the tile (x, y)) and RGBA.
+ */
+public class PlaceholderPlane
+{
+	public static final int EDGE = LayerManager.CUBOID_EDGE_TILE_COUNT;
+	public static final int TEXEL_BYTES = 4;
+	public static final int TEXTURE_BYTES = EDGE * EDGE * TEXEL_BYTES;
+	/**
+	 * The fraction of its colour a block keeps if it isn't the top of its column (since it is probably not sky-lit).
+	 */
+	public static final float COVERED_SHADE = 0.5f;
+
+	/**
+	 * Fills the placeholder texture of a layer into target, starting at its current position.
+	 * 
+	 * @param target The buffer to fill (must have room for TEXTURE_BYTES).
+	 * @param cuboid The cuboid containing the layer.
+	 * @param heightMap The height map of the cuboid's column.
+	 * @param zLayer The z-level of the layer within the cuboid.
+	 * @param averageColours The average colour of each item's tile texture, as 0xRRGGBBAA.
+	 */
+	public static void fillLayer(ByteBuffer target
+			, IReadOnlyCuboidData cuboid
+			, ColumnHeightMap heightMap
+			, byte zLayer
+			, int[] averageColours
+	)
+	{
+		int layerAbsoluteZ = (cuboid.getCuboidAddress().z() * EDGE) + zLayer;
+		for (int y = 0; y < EDGE; ++y)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				short itemNumber = cuboid.getData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, zLayer));
+				boolean isTop = (layerAbsoluteZ == heightMap.getHeight(x, y));
+				_putTexel(target, averageColours[itemNumber], isTop ? 1.0f : COVERED_SHADE);
+			}
+		}
+	}
+
+
+	private static void _putTexel(ByteBuffer target, int colour, float shade)
+	{
+		target.put((byte)(shade * (colour >>> 24)));
+		target.put((byte)(shade * ((colour >> 16) & 0xFF)));
+		target.put((byte)(shade * ((colour >> 8) & 0xFF)));
+		target.put((byte)(colour & 0xFF));
+	}
+}
@@ -4,11 +4,14 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.aspects.Aspect;
 import com.jeffdisher.october.aspects.Environment;
 import com.jeffdisher.october.data.ColumnHeightMap;
 import com.jeffdisher.october.data.IReadOnlyCuboidData;
@@ -28,13 +31,107 @@ public class RenderSupport
 	// The screen is 2.0/2.0 (-1.0 - 1.0) and we want roughly 40x40 tiles on screen, so use this tile edge size.
 	public static final float TILE_EDGE_SIZE = 0.05f;
 	public static final int CUBOID_EDGE_TILE_COUNT = 32;
-	public static final int VERTICES_PER_SQUARE = 6;
+	// Each square is 4 unique vertices, drawn as 2 triangles via the shared index buffer.
+	public static final int VERTICES_PER_SQUARE = 4;
+	public static final int INDICES_PER_SQUARE = 6;
+	// We pre-bake the layers around where the entity will be after this many seconds at its current velocity.
+	public static final float PREFETCH_LOOKAHEAD_SECONDS = 1.0f;
+	// When drawing around hidden tiles, we still draw gaps up to this many tiles, instead of splitting the draw call.
+	public static final int OCCLUSION_MERGE_GAP_TILES = 8;
+	// The GLSL function both layer programs use to compute the light of a tile from the layer's light texture (see
+	// LightPlane):  The max of the block above and the 4 adjacent blocks, plus the sky light if it is the top of its column.
+	private static final String TILE_LIGHT_FUNCTION = ""
+			+ "uniform sampler2D uLightData;\n"
+			+ "uniform float uSkyLight;\n"
+			+ "float tileLight(vec2 tile)\n"
+			+ "{\n"
+			// The light texture has a 1-texel border so tile (x, y) is texel (x + 1, y + 1).
+			+ "	float texel = 1.0 / " + (float)LightPlane.TEXTURE_EDGE + ";\n"
+			+ "	vec2 centre = (tile + 1.5) * texel;\n"
+			+ "	vec4 here = texture2D(uLightData, centre);\n"
+			+ "	float east = texture2D(uLightData, centre + vec2(texel, 0.0)).r;\n"
+			+ "	float west = texture2D(uLightData, centre - vec2(texel, 0.0)).r;\n"
+			+ "	float north = texture2D(uLightData, centre + vec2(0.0, texel)).r;\n"
+			+ "	float south = texture2D(uLightData, centre - vec2(0.0, texel)).r;\n"
+			+ "	float blockLight = max(max(here.g, east), max(west, max(north, south)));\n"
+			+ "	return clamp(" + LayerManager.MINIMUM_LIGHT + " + blockLight + (here.b * uSkyLight), 0.0, 1.0);\n"
+			+ "}\n"
+	;
 
 	public static int fullyLinkedProgram(GL20 gl, String vertexSource, String fragmentSource, String[] attributesInOrder)
 	{
 		return _fullyLinkedProgram(gl, vertexSource, fragmentSource, attributesInOrder);
 	}
 
+	/**
+	 * Predicts the block an entity will be in after PREFETCH_LOOKAHEAD_SECONDS, if it keeps its current velocity.
+	 * 
+	 * @param location The entity's location.
+	 * @param velocity The entity's velocity, in blocks per second.
+	 * @return The predicted block location.
+	 */
+	public static AbsoluteLocation predictLocation(EntityLocation location, EntityLocation velocity)
+	{
+		EntityLocation predictedLocation = new EntityLocation(location.x() + (PREFETCH_LOOKAHEAD_SECONDS * velocity.x())
+				, location.y() + (PREFETCH_LOOKAHEAD_SECONDS * velocity.y())
+				, location.z() + (PREFETCH_LOOKAHEAD_SECONDS * velocity.z())
+		);
+		return predictedLocation.getBlockLocation();
+	}
+
+	/**
+	 * Finds how many tiles are visible on either side of the centre of the scene, at the given scene scale.
+	 * 
+	 * @param sceneScale The scene scale.
+	 * @return The distance, in tiles, from the centre of the scene to the edge of the window.
+	 */
+	public static float visibleTileRadius(float sceneScale)
+	{
+		return 1.0f / (sceneScale * TILE_EDGE_SIZE);
+	}
+
+	/**
+	 * Checks if any tile of a cuboid is within the visible rectangle of tiles (all coordinates are absolute tiles).
+	 * 
+	 * @param baseX The x of the cuboid's first tile.
+	 * @param baseY The y of the cuboid's first tile.
+	 * @param minVisibleX The first visible x.
+	 * @param maxVisibleX The last visible x (inclusive).
+	 * @param minVisibleY The first visible y.
+	 * @param maxVisibleY The last visible y (inclusive).
+	 * @return True if any tile of the cuboid is visible.
+	 */
+	public static boolean isCuboidVisible(int baseX
+			, int baseY
+			, int minVisibleX
+			, int maxVisibleX
+			, int minVisibleY
+			, int maxVisibleY
+	)
+	{
+		return ((baseX + CUBOID_EDGE_TILE_COUNT - 1) >= minVisibleX) && (baseX <= maxVisibleX)
+				&& ((baseY + CUBOID_EDGE_TILE_COUNT - 1) >= minVisibleY) && (baseY <= maxVisibleY)
+		;
+	}
+
+	/**
+	 * Checks if every tile in a range of rows is opaque, so that the layer below them would be entirely hidden.
+	 * 
+	 * @param occludingRows A bit mask of the opaque tiles in each row (see LayerManager.getOpaqueRows()).
+	 * @param firstRow The first row to check.
+	 * @param lastRow The last row to check (inclusive).
+	 * @return True if every tile of these rows is opaque.
+	 */
+	public static boolean isFullyOccluded(int[] occludingRows, int firstRow, int lastRow)
+	{
+		boolean isFullyOccluded = true;
+		for (int row = firstRow; isFullyOccluded && (row <= lastRow); ++row)
+		{
+			isFullyOccluded = (-1 == occludingRows[row]);
+		}
+		return isFullyOccluded;
+	}
+
 
 	// We need to render 2 kinds of things:  (1) Cuboid layers, (2) entities.
 	// We will just use a single pair of shaders, at least for now, for both of these cases:
@@ -55,19 +152,58 @@ public class RenderSupport
 	private int _uLayerBrightness;
 	private int _uLayerAlpha;
 	private int _uColourBias;
+	private int _uUseLightTexture;
+	private int _uMergedQuads;
+	private int _uHighlightTile;
 	private int[] _entityBuffers;
 	private int _layerMeshBuffer;
+	private int _layerIndexBuffer;
+	// True if the layers are baked in the MERGED_MESH format (drawn with _program, like VERTEX_MESH).
+	private final boolean _isMergedLayers;
+	// In the MERGED_MESH format, the highlighted tile is drawn over its level, since it may have no quad of its own.
+	private final TransientOverlay _highlightOverlay;
+	// True while the attribute layout and uniforms shared by all the layers of a z-level are set up (see _beginLayerLayout()).
+	private boolean _isLayerLayoutReady;
+	// The counts of what was drawn for the layers in the last frame (see getLayerDrawCounters()).
+	private int _frameLayers;
+	private int _framePlaceholders;
+	private int _frameLayerDrawCalls;
+	private int _frameLayoutSetups;
+
+	// The program used to draw the layers when they are baked in the DATA_TEXTURE format (0 if using VERTEX_MESH).
+	private int _dataProgram;
+	private int _uDataOffset;
+	private int _uDataSceneScale;
+	private int _uDataSkyLight;
+	private int _uDataLayerBrightness;
+	private int _uDataLayerAlpha;
+	private int _uDataHighlightTile;
+	// A single quad covering a whole layer (used by _dataProgram and _placeholderProgram).
+	private int _layerQuadBuffer;
+
+	// The program used to draw the placeholder of a layer which can't be drawn yet (see LayerManager.getPlaceholderTexture()).
+	private int _placeholderProgram;
+	private int _uPlaceholderOffset;
+	private int _uPlaceholderSceneScale;
+	private int _uPlaceholderLayerBrightness;
+	private int _uPlaceholderLayerAlpha;
+
+	// Draws the transient aux textures (crafting and damage) over each level of layers, after they are drawn.
+	private final TransientOverlay _transientOverlay;
+	// Draws the top block of every column, instead of the layers, when in surface mode.
+	private final SurfaceManager _surfaceManager;
+	private boolean _isSurfaceMode;
 
 	private EntityLocation _projectedEntityLocation;
 	private final Map<Integer, PartialEntity> _otherEntitiesById;
 	private float _currentSceneScale;
 	private float _currentSkyLightMultiplier;
 
-	public RenderSupport(Environment environment, GL20 gl, TextureAtlas textureAtlas)
+	public RenderSupport(Environment environment, GL20 gl, TextureAtlas textureAtlas, LayerManager.LayerFormat layerFormat)
 	{
 		_gl = gl;
 		_textureAtlas = textureAtlas;
-		_layerManager = new LayerManager(environment, gl, textureAtlas);
+		_layerManager = new LayerManager(environment, gl, textureAtlas, layerFormat);
 		
 		// We want to honour alpha channels.
 		_gl.glEnable(GL20.GL_BLEND);
@@ -88,30 +224,60 @@ public class RenderSupport
 						+ "varying vec2 vTexture0;\n"
 						+ "varying vec2 vTexture1;\n"
 						+ "varying float vLightMultiplier;\n"
+						+ "varying vec2 vTile;\n"
 						+ "void main()\n"
 						+ "{\n"
+						// (this is only meaningful when drawing a layer mesh, where the position is relative to the layer).
+						+ "	vTile = (uScale * aPosition) / " + TILE_EDGE_SIZE + ";\n"
 						+ "	vTexture0 = aTexture0;\n"
 						+ "	vTexture1 = aTexture1;\n"
-						+ "	vLightMultiplier = clamp(aBlockLightMultiplier + (aSkyLightMultiplier * uSkyLight), 0.0, 1.0);\n"
+						+ "	vLightMultiplier = clamp(" + LayerManager.MINIMUM_LIGHT + " + aBlockLightMultiplier + (aSkyLightMultiplier * uSkyLight), 0.0, 1.0);\n"
 						+ "	gl_Position = vec4(uSceneScale * ((uScale * aPosition.x) + uOffset.x), uSceneScale * ((uScale * aPosition.y) + uOffset.y), 0.0, 1.0);\n"
 						+ "}\n"
 				, "#version 100\n"
+						// We need more than mediump to resolve which tile we are in near the far edge of the layer.
+						+ "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+						+ "precision highp float;\n"
+						+ "#else\n"
 						+ "precision mediump float;\n"
+						+ "#endif\n"
 						+ "uniform sampler2D uTexture0;\n"
 						+ "uniform sampler2D uTexture1;\n"
 						+ "uniform float uLayerBrightness;\n"
 						+ "uniform float uLayerAlpha;\n"
 						+ "uniform vec4 uColourBias;\n"
+						+ "uniform float uUseLightTexture;\n"
+						+ "uniform float uMergedQuads;\n"
+						+ "uniform float uTileCoordinateSize;\n"
+						+ "uniform float uAuxCoordinateSize;\n"
+						+ "uniform vec2 uHighlightTile;\n"
 						+ "varying vec2 vTexture0;\n"
 						+ "varying vec2 vTexture1;\n"
 						+ "varying float vLightMultiplier;\n"
+						+ "varying vec2 vTile;\n"
+						+ TILE_LIGHT_FUNCTION
 						+ "void main()\n"
 						+ "{\n"
-						+ "	vec4 tex0 = texture2D(uTexture0, vTexture0);\n"
-						+ "	vec4 tex1 = texture2D(uTexture1, vTexture1);\n"
+						+ "	vec2 uv0 = vTexture0;\n"
+						+ "	vec2 uv1 = vTexture1;\n"
+						+ "	if (uMergedQuads > 0.5)\n"
+						+ "	{\n"
+						// Merged quads carry the top-left of their textures so we tile them across the quad (inverted, like the tiles).
+						+ "		vec2 inTile = fract(vTile);\n"
+						+ "		inTile.y = 1.0 - inTile.y;\n"
+						+ "		uv0 += inTile * uTileCoordinateSize;\n"
+						+ "		uv1 += inTile * uAuxCoordinateSize;\n"
+						+ "	}\n"
+						+ "	vec4 tex0 = texture2D(uTexture0, uv0);\n"
+						+ "	vec4 tex1 = texture2D(uTexture1, uv1);\n"
 						+ "	vec4 tex = mix(tex0, tex1, tex1.a);\n"
-						+ "	vec4 biased = vec4(clamp(uColourBias.r + tex.r, 0.0, 1.0), clamp(uColourBias.g + tex.g, 0.0, 1.0), clamp(uColourBias.b + tex.b, 0.0, 1.0), clamp(uColourBias.a + tex.a, 0.0, 1.0));\n"
-						+ "	gl_FragColor = vec4(uLayerBrightness * vLightMultiplier * biased.r, uLayerBrightness * vLightMultiplier * biased.g, uLayerBrightness * vLightMultiplier * biased.b, uLayerAlpha * biased.a);\n"
+						// A layer mesh gives its highlighted tile a pinkish hue (with added alpha so we can select air blocks if
+						// placing a block), instead of drawing it again.
+						+ "	vec4 bias = ((uUseLightTexture > 0.5) && all(equal(floor(vTile), uHighlightTile))) ? vec4(0.5, 0.0, 0.5, 0.5) : uColourBias;\n"
+						+ "	vec4 biased = vec4(clamp(bias.r + tex.r, 0.0, 1.0), clamp(bias.g + tex.g, 0.0, 1.0), clamp(bias.b + tex.b, 0.0, 1.0), clamp(bias.a + tex.a, 0.0, 1.0));\n"
+						// Layer meshes take their light from the light texture while everything else passes it in the vertices.
+						+ "	float light = (uUseLightTexture > 0.5) ? tileLight(floor(vTile)) : vLightMultiplier;\n"
+						+ "	gl_FragColor = vec4(uLayerBrightness * light * biased.r, uLayerBrightness * light * biased.g, uLayerBrightness * light * biased.b, uLayerAlpha * biased.a);\n"
 						+ "}\n"
 				, new String[] {
 						"aPosition",
@@ -130,6 +296,17 @@ public class RenderSupport
 		_uLayerBrightness = _gl.glGetUniformLocation(_program, "uLayerBrightness");
 		_uLayerAlpha = _gl.glGetUniformLocation(_program, "uLayerAlpha");
 		_uColourBias = _gl.glGetUniformLocation(_program, "uColourBias");
+		_uUseLightTexture = _gl.glGetUniformLocation(_program, "uUseLightTexture");
+		_uMergedQuads = _gl.glGetUniformLocation(_program, "uMergedQuads");
+		_uHighlightTile = _gl.glGetUniformLocation(_program, "uHighlightTile");
+		// The light texture unit and atlas shapes never change so we can set them once.
+		_gl.glUseProgram(_program);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_program, "uLightData"), LayerManager.LIGHT_TEXTURE_UNIT);
+		_gl.glUniform1f(_gl.glGetUniformLocation(_program, "uTileCoordinateSize"), _textureAtlas.tileCoordinateSize);
+		_gl.glUniform1f(_gl.glGetUniformLocation(_program, "uAuxCoordinateSize"), _textureAtlas.auxCoordinateSize);
+		_gl.glUniform1f(_uUseLightTexture, 0.0f);
+		_gl.glUniform1f(_uMergedQuads, 0.0f);
+		_gl.glUniform2f(_uHighlightTile, -1.0f, -1.0f);
 		
 		// Define the entity mesh and texture for each entity type (in the future, we should probably avoid so many small representations).
 		_entityBuffers = new int[EntityType.values().length];
@@ -138,8 +315,28 @@ public class RenderSupport
 			_entityBuffers[type.ordinal()] = _defineEntityBuffer(environment, _gl, _textureAtlas, type);
 		}
 		
-		// Define the layer mesh.
-		_layerMeshBuffer = _defineLayerMeshBuffer(_gl);
+		// Define the layer mesh (in the DATA_TEXTURE format, this is just the single layer quad and a different program, and
+		// the MERGED_MESH format has its own positions).  The placeholders always use the layer quad.
+		_isMergedLayers = (LayerManager.LayerFormat.MERGED_MESH == layerFormat);
+		_layerQuadBuffer = _defineLayerQuadBuffer(_gl);
+		_definePlaceholderProgram();
+		if (LayerManager.LayerFormat.DATA_TEXTURE == layerFormat)
+		{
+			_defineDataLayerProgram();
+		}
+		else if (!_isMergedLayers)
+		{
+			_layerMeshBuffer = _defineLayerMeshBuffer(_gl);
+		}
+		_layerIndexBuffer = _defineLayerIndexBuffer(_gl);
+		_transientOverlay = new TransientOverlay(environment, _gl, _textureAtlas);
+		_highlightOverlay = _isMergedLayers
+				? new TransientOverlay(environment, _gl, _textureAtlas)
+				: null
+		;
+		_surfaceManager = new SurfaceManager(environment, _gl, _textureAtlas);
+		_isSurfaceMode = false;
+		_isLayerLayoutReady = false;
 		
 		_otherEntitiesById = new HashMap<>();
 		_currentSceneScale = 1.0f;
@@ -155,6 +352,10 @@ public class RenderSupport
 	{
 		// Process any background layer baking.
 		_layerManager.completeBackgroundBakeRequest();
+		_frameLayers = 0;
+		_framePlaceholders = 0;
+		_frameLayerDrawCalls = 0;
+		_frameLayoutSetups = 0;
 		
 		// We render this relative to the entity, so figure out where it is.
 		AbsoluteLocation entityBlockLocation = _projectedEntityLocation.getBlockLocation();
@@ -194,15 +395,76 @@ public class RenderSupport
 		_gl.glUniform1f(_uScale, 1.0f);
 		_gl.glUniform1f(_uSceneScale, _currentSceneScale);
 		_gl.glUniform1f(_uSkyLight, _currentSkyLightMultiplier);
+		if (0 != _dataProgram)
+		{
+			_gl.glUseProgram(_dataProgram);
+			_gl.glUniform1f(_uDataSceneScale, _currentSceneScale);
+			_gl.glUniform1f(_uDataSkyLight, _currentSkyLightMultiplier);
+			_gl.glUseProgram(_program);
+		}
+		_gl.glUseProgram(_placeholderProgram);
+		_gl.glUniform1f(_uPlaceholderSceneScale, _currentSceneScale);
+		_gl.glUseProgram(_program);
+		
+		// All layers share the same index buffer (nothing else uses an element buffer so this stays bound for the frame).
+		_gl.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, _layerIndexBuffer);
+		
+		// Find the rectangle of tiles which is actually on screen:  The scene is centred on the entity and the scene scale
+		// maps this many tiles on either side of it onto the [-1.0, 1.0] range (the viewport always covers the whole window,
+		// so the window size changes how large the tiles are, not how many are visible).
+		float visibleTileRadius = visibleTileRadius(_currentSceneScale);
+		int minVisibleX = (int)Math.floor(x - visibleTileRadius);
+		int maxVisibleX = (int)Math.floor(x + visibleTileRadius);
+		int minVisibleY = (int)Math.floor(y - visibleTileRadius);
+		int maxVisibleY = (int)Math.floor(y + visibleTileRadius);
+		
+		// In surface mode, the terrain is the top of each column of cuboids, instead of the layers (the entities are still
+		// drawn by level, below).
+		if (_isSurfaceMode)
+		{
+			_surfaceManager.beginFrame(_currentSceneScale, _currentSkyLightMultiplier, _projectedEntityLocation.z());
+			for (int xOffset = -CUBOID_EDGE_TILE_COUNT; xOffset <= CUBOID_EDGE_TILE_COUNT; xOffset += CUBOID_EDGE_TILE_COUNT)
+			{
+				for (int yOffset = -CUBOID_EDGE_TILE_COUNT; yOffset <= CUBOID_EDGE_TILE_COUNT; yOffset += CUBOID_EDGE_TILE_COUNT)
+				{
+					CuboidAddress address = entityBlockLocation.getRelative(xOffset, yOffset, 0).getCuboidAddress();
+					int baseX = address.x() * CUBOID_EDGE_TILE_COUNT;
+					int baseY = address.y() * CUBOID_EDGE_TILE_COUNT;
+					if (isCuboidVisible(baseX, baseY, minVisibleX, maxVisibleX, minVisibleY, maxVisibleY))
+					{
+						_surfaceManager.drawColumn(address, TILE_EDGE_SIZE * ((float)baseX - x), TILE_EDGE_SIZE * ((float)baseY - y));
+					}
+				}
+			}
+			_gl.glUseProgram(_program);
+		}
 		
 		// We want to render 9 tiles with 3 layers:  3x3x3, centred around the entity location.
 		// (technically 4 tiles with 3 layers would be enough but that would require some extra logic)
+		// Any of these cuboids which are entirely off-screen are skipped, as are any rows of the others which are.
 		float layerBrightness = 0.50f;
 		for (int zOffset = -1; zOffset <= 1; ++zOffset)
 		{
+			float layerAlpha = (1 == zOffset) ? 0.5f : 1.0f;
 			_gl.glUniform1f(_uLayerBrightness, layerBrightness);
-			_gl.glUniform1f(_uLayerAlpha, (1 == zOffset) ? 0.5f : 1.0f);
+			_gl.glUniform1f(_uLayerAlpha, layerAlpha);
+			if (0 != _dataProgram)
+			{
+				// The layers are drawn with their own program so we switch back to the common one for the entities, below.
+				_gl.glUseProgram(_dataProgram);
+				_gl.glUniform1f(_uDataLayerBrightness, layerBrightness);
+				_gl.glUniform1f(_uDataLayerAlpha, layerAlpha);
+			}
+			int layerProgram = (0 != _dataProgram)
+					? _dataProgram
+					: _program
+			;
+			_gl.glUseProgram(_placeholderProgram);
+			_gl.glUniform1f(_uPlaceholderLayerBrightness, layerBrightness);
+			_gl.glUniform1f(_uPlaceholderLayerAlpha, layerAlpha);
+			_gl.glUseProgram(layerProgram);
 			layerBrightness += 0.25f;
+			boolean isHighlightPending = false;
 			for (int xOffset = -CUBOID_EDGE_TILE_COUNT; xOffset <= CUBOID_EDGE_TILE_COUNT; xOffset += CUBOID_EDGE_TILE_COUNT)
 			{
 				for (int yOffset = -CUBOID_EDGE_TILE_COUNT; yOffset <= CUBOID_EDGE_TILE_COUNT; yOffset += CUBOID_EDGE_TILE_COUNT)
@@ -211,43 +473,117 @@ public class RenderSupport
 					CuboidAddress address = offsetLocation.getCuboidAddress();
 					byte zLayer = offsetLocation.getBlockAddress().z();
 					
-					int buffer = _layerManager.getBakedLayer(address, zLayer);
-					if (0 != buffer)
+					// Clip the visible rectangle to this cuboid (these are relative to the cuboid, so [0..31] if visible).
+					int baseX = address.x() * CUBOID_EDGE_TILE_COUNT;
+					int baseY = address.y() * CUBOID_EDGE_TILE_COUNT;
+					int firstColumn = Math.max(0, minVisibleX - baseX);
+					int lastColumn = Math.min(CUBOID_EDGE_TILE_COUNT - 1, maxVisibleX - baseX);
+					int firstRow = Math.max(0, minVisibleY - baseY);
+					int lastRow = Math.min(CUBOID_EDGE_TILE_COUNT - 1, maxVisibleY - baseY);
+					// If this is entirely off-screen, we skip it (the layer manager pre-bakes around the entity so we don't need to
+					// request it).  The layers are also skipped entirely in surface mode.
+					if (!_isSurfaceMode && (firstColumn <= lastColumn) && (firstRow <= lastRow))
 					{
-						// Be sure to position the camera above the entity, so calculate the offset where we will draw this layer.
-						float xCamera = TILE_EDGE_SIZE * ((float)(address.x() * CUBOID_EDGE_TILE_COUNT) - x);
-						float yCamera = TILE_EDGE_SIZE * ((float)(address.y() * CUBOID_EDGE_TILE_COUNT) - y);
-						_gl.glUniform2f(_uOffset, xCamera, yCamera);
-						_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, _layerMeshBuffer);
-						_gl.glEnableVertexAttribArray(0);
-						_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, 0, 0);
-						_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
-						_gl.glEnableVertexAttribArray(1);
-						_gl.glVertexAttribPointer(1, 2, GL20.GL_FLOAT, false, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, 0);
-						_gl.glEnableVertexAttribArray(2);
-						_gl.glVertexAttribPointer(2, 2, GL20.GL_FLOAT, false, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, 2 * Float.BYTES);
-						_gl.glEnableVertexAttribArray(3);
-						_gl.glVertexAttribPointer(3, 1, GL20.GL_FLOAT, false, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, 4 * Float.BYTES);
-						_gl.glEnableVertexAttribArray(4);
-						_gl.glVertexAttribPointer(4, 1, GL20.GL_FLOAT, false, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, 5 * Float.BYTES);
-						
-						_gl.glDrawArrays(GL20.GL_TRIANGLES, 0, CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT * VERTICES_PER_SQUARE);
+						// The lowest layer is drawn first, at full alpha, so the next layer's opaque tiles completely hide the
+						// tiles under them (the top layer is translucent so it hides nothing).
+						int[] occludingRows = null;
+						if (-1 == zOffset)
+						{
+							AbsoluteLocation aboveLocation = offsetLocation.getRelative(0, 0, 1);
+							occludingRows = _layerManager.getOpaqueRows(aboveLocation.getCuboidAddress(), aboveLocation.getBlockAddress().z());
+						}
 						
-						// Check if this is where the selected tile is and then re-draw it to highlight it.
-						if ((null != selectedBlock) && (zLayer == selectedBlock.z()) && selectedCuboid.equals(address))
+						int buffer = _layerManager.getBakedLayer(address, zLayer);
+						// A layer can't be drawn without its light, too.
+						int lightTexture = (0 != buffer)
+								? _layerManager.getLightTexture(address, zLayer)
+								: 0
+						;
+						// Check if this is where the selected tile is so we can highlight it.
+						BlockAddress highlightTile = ((null != selectedBlock) && (zLayer == selectedBlock.z()) && selectedCuboid.equals(address))
+								? selectedBlock
+								: null
+						;
+						// A layer of only air draws nothing so we skip it, unless it needs to show the highlight.  A layer which
+						// is entirely hidden under the one above it is skipped, too (including its highlight, which is hidden).
+						boolean isHidden = (null != occludingRows) && isFullyOccluded(occludingRows, firstRow, lastRow);
+						boolean isVisible = !isHidden && ((null != highlightTile) || !_layerManager.isTransparentLayer(address, zLayer));
+						// Be sure to position the camera above the entity, so calculate the offset where we will draw this layer.
+						float xCamera = TILE_EDGE_SIZE * ((float)baseX - x);
+						float yCamera = TILE_EDGE_SIZE * ((float)baseY - y);
+						if (isVisible && ((0 == buffer) || (0 == lightTexture)))
+						{
+							// This can't be drawn yet so draw its placeholder (if it fit in this frame's budget), instead of a hole.
+							int placeholder = _layerManager.getPlaceholderTexture(address, zLayer);
+							if (0 != placeholder)
+							{
+								// This replaces the attribute layout so the next layer needs to set it up again.
+								_drawPlaceholderLayer(xCamera, yCamera);
+								_gl.glUseProgram(layerProgram);
+								_isLayerLayoutReady = false;
+							}
+						}
+						else if (isVisible)
 						{
-							// Give it a pinkish hue (with added alpha so we can select air blocks if placing a block).
-							_gl.glUniform4f(_uColourBias, 0.5f, 0.0f, 0.5f, 0.5f);
+							if (!_isLayerLayoutReady)
+							{
+								_beginLayerLayout();
+							}
+							_gl.glActiveTexture(GL20.GL_TEXTURE0 + LayerManager.LIGHT_TEXTURE_UNIT);
+							_gl.glBindTexture(GL20.GL_TEXTURE_2D, lightTexture);
+							_frameLayers += 1;
 							
-							// Redraw the single tile.
-							_gl.glDrawArrays(GL20.GL_TRIANGLES, VERTICES_PER_SQUARE * ((CUBOID_EDGE_TILE_COUNT * selectedBlock.y()) + selectedBlock.x()), VERTICES_PER_SQUARE);
+							if (0 != _dataProgram)
+							{
+								// The whole layer is a single quad so the rasterizer already discards the off-screen part.
+								_drawDataLayer(buffer, xCamera, yCamera, highlightTile);
+							}
+							else if (_isMergedLayers)
+							{
+								// The merged quads are few enough that clipping them to the visible rows isn't worth it.
+								_drawMergedLayer(buffer, _layerManager.getQuadCount(address, zLayer), xCamera, yCamera);
+								if (null != highlightTile)
+								{
+									// An air tile has no quad so the highlight is drawn over the whole level, with the overlays (lit like
+									// the tile under it, since the overlay doesn't read the light texture).
+									_highlightOverlay.addTile(xCamera, yCamera, _layerManager.createLitTile(address, highlightTile, TextureAtlas.Auxiliary.NONE));
+									isHighlightPending = true;
+								}
+							}
+							else
+							{
+								_drawMeshLayer(buffer, xCamera, yCamera, highlightTile, firstRow, lastRow, occludingRows);
+							}
 							
-							_gl.glUniform4f(_uColourBias, 0.0f, 0.0f, 0.0f, 0.0f);
+							// Any transient tiles are drawn over all the layers at this level, once they are drawn.
+							for (LayerManager.TransientTile tile : _layerManager.getTransientTiles(address, zLayer))
+							{
+								_transientOverlay.addTile(xCamera, yCamera, tile);
+							}
 						}
 					}
 				}
 			}
 			
+			if (_isLayerLayoutReady)
+			{
+				_endLayerLayout();
+			}
+			if (0 != _dataProgram)
+			{
+				_gl.glUseProgram(_program);
+			}
+			// The overlay tiles are already positioned relative to the camera.
+			_gl.glUniform2f(_uOffset, 0.0f, 0.0f);
+			_transientOverlay.draw();
+			if (isHighlightPending)
+			{
+				// Give it the same pinkish hue as the other formats, over whatever the layer drew (an air tile keeps only the hue).
+				_gl.glUniform4f(_uColourBias, 0.5f, 0.0f, 0.5f, 0.5f);
+				_highlightOverlay.draw();
+				_gl.glUniform4f(_uColourBias, 0.0f, 0.0f, 0.0f, 0.0f);
+			}
+			
 			if (0 == zOffset)
 			{
 				// Draw the entity.
@@ -284,21 +620,39 @@ public class RenderSupport
 				}
 			}
 		}
+		
+		// Now that the visible layers have all been requested, pre-bake any around where the entity is heading.
+		_layerManager.prefetchPredictedLayers();
 	}
 
-	public void setThisEntityLocation(EntityLocation projectedEntityLocation)
+	public void setThisEntityLocation(EntityLocation projectedEntityLocation, EntityLocation projectedVelocity)
 	{
 		_projectedEntityLocation = projectedEntityLocation;
+		// The layer manager bakes the layers closest to the entity first.
+		_layerManager.setFocusLocation(projectedEntityLocation.getBlockLocation());
+		// It also pre-bakes the layers around where the entity is heading.
+		_layerManager.setPredictedLocation(predictLocation(projectedEntityLocation, projectedVelocity));
 	}
 
-	public void setOneCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap)
+	public void setOneCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks, Set<Aspect<?, ?>> changedAspects)
 	{
-		_layerManager.storeCuboid(cuboid, heightMap);
+		_layerManager.storeCuboid(cuboid, heightMap, changedBlocks, changedAspects);
+		_surfaceManager.storeCuboid(cuboid, heightMap, changedBlocks);
 	}
 
 	public void removeCuboid(CuboidAddress address)
 	{
 		_layerManager.removeCuboid(address);
+		_surfaceManager.removeCuboid(address);
+	}
+
+	/**
+	 * Switches between drawing the 3 layers around the entity and the surface (the top block of every column, shaded by
+	 * depth), which can show the terrain far below when outdoors.
+	 */
+	public void toggleSurfaceMode()
+	{
+		_isSurfaceMode = !_isSurfaceMode;
 	}
 
 	public void setOtherEntity(PartialEntity entity)
@@ -331,6 +685,50 @@ public class RenderSupport
 		return _currentSceneScale;
 	}
 
+	/**
+	 * @return The counts of what was drawn for the layers in the last frame.
+	 */
+	public LayerDrawCounters getLayerDrawCounters()
+	{
+		return new LayerDrawCounters(_frameLayers, _framePlaceholders, _frameLayerDrawCalls, _frameLayoutSetups);
+	}
+
+	/**
+	 * @return A snapshot of the counters of the layers:  How they were baked, uploaded, kept resident, and drawn.
+	 */
+	public LayerCounters getLayerCounters()
+	{
+		return new LayerCounters(_layerManager.getTelemetry()
+				, _layerManager.getBufferPoolCounters()
+				, _layerManager.getResidencyCounters()
+				, _layerManager.getVertexCounters()
+				, _layerManager.getNeighbourInvalidationCount()
+				, _layerManager.getSkippedBakeCount()
+				, getLayerDrawCounters()
+		);
+	}
+
+	/**
+	 * Sets the budget for the GPU memory used by the layers (see LayerManager.setVramBudget()).
+	 * 
+	 * @param budgetBytes The number of bytes.
+	 */
+	public void setVramBudget(long budgetBytes)
+	{
+		_layerManager.setVramBudget(budgetBytes);
+	}
+
+	/**
+	 * Sets the maximum number of layers which can be pre-baked around the predicted location at once (see
+	 * LayerManager.setPrefetchBudget()).
+	 * 
+	 * @param budget The number of requests (0 disables pre-baking).
+	 */
+	public void setPrefetchBudget(int budget)
+	{
+		_layerManager.setPrefetchBudget(budget);
+	}
+
 	public void setSkyLightMultiplier(float multiplier)
 	{
 		_currentSkyLightMultiplier = multiplier;
@@ -461,10 +859,8 @@ public class RenderSupport
 		int commonLayerSizeBytes = 1
 				// tiles per layer
 				* (CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT)
-				// triangles per tile
-				* 2
-				// vertices per triangle
-				* 3
+				// vertices per tile
+				* VERTICES_PER_SQUARE
 				// xy per vertex
 				* (Float.BYTES * 2)
 		;
@@ -484,12 +880,10 @@ public class RenderSupport
 				float[] tr = new float[]{xCoord + TILE_EDGE_SIZE, yCoord + TILE_EDGE_SIZE};
 				float[] tl = new float[]{xCoord, yCoord + TILE_EDGE_SIZE};
 				
+				// These are drawn via _layerIndexBuffer so the order must match _defineLayerIndexBuffer.
 				meshBuffer.put(bl);
 				meshBuffer.put(br);
 				meshBuffer.put(tr);
-				
-				meshBuffer.put(bl);
-				meshBuffer.put(tr);
 				meshBuffer.put(tl);
 			}
 		}
@@ -503,6 +897,347 @@ public class RenderSupport
 		return commonMesh;
 	}
 
+	private static int _defineLayerIndexBuffer(GL20 gl)
+	{
+		// Each tile is 4 vertices (bl, br, tr, tl) so the 2 triangles are (bl, br, tr) and (bl, tr, tl).
+		// Note that a full layer is 4096 vertices so we can use short indices.
+		int indexCount = CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT * INDICES_PER_SQUARE;
+		ByteBuffer indexData = ByteBuffer.allocateDirect(indexCount * Short.BYTES);
+		indexData.order(ByteOrder.nativeOrder());
+		ShortBuffer indexBuffer = indexData.asShortBuffer();
+		for (int i = 0; i < (CUBOID_EDGE_TILE_COUNT * CUBOID_EDGE_TILE_COUNT); ++i)
+		{
+			short bl = (short)(i * VERTICES_PER_SQUARE);
+			short br = (short)(bl + 1);
+			short tr = (short)(bl + 2);
+			short tl = (short)(bl + 3);
+			
+			indexBuffer.put(bl);
+			indexBuffer.put(br);
+			indexBuffer.put(tr);
+			
+			indexBuffer.put(bl);
+			indexBuffer.put(tr);
+			indexBuffer.put(tl);
+		}
+		((java.nio.Buffer) indexData).position(0);
+		
+		int indices = gl.glGenBuffer();
+		gl.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, indices);
+		gl.glBufferData(GL20.GL_ELEMENT_ARRAY_BUFFER, indexCount * Short.BYTES, indexData, GL20.GL_STATIC_DRAW);
+		return indices;
+	}
+
+	private void _defineDataLayerProgram()
+	{
+		// This program draws a whole layer as one quad, looking up each tile in the layer's data texture (LUMINANCE_ALPHA):
+		// -r (luminance) is the item number (index into the tile atlas)
+		// -a is the aux texture index (index into the aux atlas)
+		// The light of each tile is looked up in the layer's light texture.
+		_dataProgram = _fullyLinkedProgram(_gl
+				, "#version 100\n"
+						+ "attribute vec2 aPosition;\n"
+						+ "uniform vec2 uOffset;\n"
+						+ "uniform float uSceneScale;\n"
+						+ "varying vec2 vTile;\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vTile = aPosition / " + TILE_EDGE_SIZE + ";\n"
+						+ "	gl_Position = vec4(uSceneScale * (aPosition.x + uOffset.x), uSceneScale * (aPosition.y + uOffset.y), 0.0, 1.0);\n"
+						+ "}\n"
+				, "#version 100\n"
+						// We need more than mediump to resolve the position within a tile near the far edge of the layer.
+						+ "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+						+ "precision highp float;\n"
+						+ "#else\n"
+						+ "precision mediump float;\n"
+						+ "#endif\n"
+						+ "uniform sampler2D uTexture0;\n"
+						+ "uniform sampler2D uTexture1;\n"
+						+ "uniform sampler2D uLayerData;\n"
+						+ "uniform float uTileTexturesPerRow;\n"
+						+ "uniform float uAuxTexturesPerRow;\n"
+						+ "uniform float uLayerBrightness;\n"
+						+ "uniform float uLayerAlpha;\n"
+						+ "uniform vec2 uHighlightTile;\n"
+						+ "varying vec2 vTile;\n"
+						+ TILE_LIGHT_FUNCTION
+						+ "vec2 atlasCoordinates(float index, float texturesPerRow, vec2 inTile)\n"
+						+ "{\n"
+						// Note that the textures are inverted, as they are in the vertex mesh.
+						+ "	vec2 base = vec2(mod(index, texturesPerRow), floor(index / texturesPerRow));\n"
+						+ "	return (base + vec2(inTile.x, 1.0 - inTile.y)) / texturesPerRow;\n"
+						+ "}\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vec2 tile = floor(vTile);\n"
+						+ "	vec2 inTile = vTile - tile;\n"
+						+ "	vec4 data = texture2D(uLayerData, (tile + 0.5) / " + (float)CUBOID_EDGE_TILE_COUNT + ");\n"
+						+ "	float item = floor((data.r * 255.0) + 0.5);\n"
+						+ "	float aux = floor((data.a * 255.0) + 0.5);\n"
+						+ "	vec4 tex0 = texture2D(uTexture0, atlasCoordinates(item, uTileTexturesPerRow, inTile));\n"
+						+ "	vec4 tex1 = texture2D(uTexture1, atlasCoordinates(aux, uAuxTexturesPerRow, inTile));\n"
+						+ "	vec4 tex = mix(tex0, tex1, tex1.a);\n"
+						// This is the same pinkish hue the mesh path applies when re-drawing the selected tile.
+						+ "	vec4 bias = all(equal(tile, uHighlightTile)) ? vec4(0.5, 0.0, 0.5, 0.5) : vec4(0.0);\n"
+						+ "	vec4 biased = clamp(bias + tex, 0.0, 1.0);\n"
+						+ "	float light = tileLight(tile);\n"
+						+ "	gl_FragColor = vec4(uLayerBrightness * light * biased.rgb, uLayerAlpha * biased.a);\n"
+						+ "}\n"
+				, new String[] {
+						"aPosition",
+				}
+		);
+		_uDataOffset = _gl.glGetUniformLocation(_dataProgram, "uOffset");
+		_uDataSceneScale = _gl.glGetUniformLocation(_dataProgram, "uSceneScale");
+		_uDataSkyLight = _gl.glGetUniformLocation(_dataProgram, "uSkyLight");
+		_uDataLayerBrightness = _gl.glGetUniformLocation(_dataProgram, "uLayerBrightness");
+		_uDataLayerAlpha = _gl.glGetUniformLocation(_dataProgram, "uLayerAlpha");
+		_uDataHighlightTile = _gl.glGetUniformLocation(_dataProgram, "uHighlightTile");
+		
+		// The texture units and atlas shapes never change so we can set them once.
+		_gl.glUseProgram(_dataProgram);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_dataProgram, "uTexture0"), 0);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_dataProgram, "uTexture1"), 1);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_dataProgram, "uLayerData"), LayerManager.DATA_TEXTURE_UNIT);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_dataProgram, "uLightData"), LayerManager.LIGHT_TEXTURE_UNIT);
+		_gl.glUniform1f(_gl.glGetUniformLocation(_dataProgram, "uTileTexturesPerRow"), 1.0f / _textureAtlas.tileCoordinateSize);
+		_gl.glUniform1f(_gl.glGetUniformLocation(_dataProgram, "uAuxTexturesPerRow"), 1.0f / _textureAtlas.auxCoordinateSize);
+		_gl.glUniform2f(_uDataHighlightTile, -1.0f, -1.0f);
+		_gl.glUseProgram(_program);
+	}
+
+	private void _definePlaceholderProgram()
+	{
+		// This program draws a whole layer as one quad, showing each tile as the single texel of the layer's placeholder
+		// texture (its block's average colour, already shaded).
+		_placeholderProgram = _fullyLinkedProgram(_gl
+				, "#version 100\n"
+						+ "attribute vec2 aPosition;\n"
+						+ "uniform vec2 uOffset;\n"
+						+ "uniform float uSceneScale;\n"
+						+ "varying vec2 vTile;\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vTile = aPosition / " + TILE_EDGE_SIZE + ";\n"
+						+ "	gl_Position = vec4(uSceneScale * (aPosition.x + uOffset.x), uSceneScale * (aPosition.y + uOffset.y), 0.0, 1.0);\n"
+						+ "}\n"
+				, "#version 100\n"
+						+ "precision mediump float;\n"
+						+ "uniform sampler2D uPlaceholder;\n"
+						+ "uniform float uLayerBrightness;\n"
+						+ "uniform float uLayerAlpha;\n"
+						+ "varying vec2 vTile;\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vec4 colour = texture2D(uPlaceholder, vTile / " + (float)CUBOID_EDGE_TILE_COUNT + ");\n"
+						+ "	gl_FragColor = vec4(uLayerBrightness * colour.rgb, uLayerAlpha * colour.a);\n"
+						+ "}\n"
+				, new String[] {
+						"aPosition",
+				}
+		);
+		_uPlaceholderOffset = _gl.glGetUniformLocation(_placeholderProgram, "uOffset");
+		_uPlaceholderSceneScale = _gl.glGetUniformLocation(_placeholderProgram, "uSceneScale");
+		_uPlaceholderLayerBrightness = _gl.glGetUniformLocation(_placeholderProgram, "uLayerBrightness");
+		_uPlaceholderLayerAlpha = _gl.glGetUniformLocation(_placeholderProgram, "uLayerAlpha");
+		
+		// The texture unit never changes so we can set it once.
+		_gl.glUseProgram(_placeholderProgram);
+		_gl.glUniform1i(_gl.glGetUniformLocation(_placeholderProgram, "uPlaceholder"), LayerManager.PLACEHOLDER_TEXTURE_UNIT);
+		_gl.glUseProgram(_program);
+	}
+
+	private static int _defineLayerQuadBuffer(GL20 gl)
+	{
+		// A single quad covering the whole layer, in the same (bl, br, tr, tl) order as one tile of the index buffer.
+		float edge = TILE_EDGE_SIZE * CUBOID_EDGE_TILE_COUNT;
+		float[] vertices = new float[] {
+				0.0f, 0.0f,
+				edge, 0.0f,
+				edge, edge,
+				0.0f, edge,
+		};
+		ByteBuffer direct = ByteBuffer.allocateDirect(vertices.length * Float.BYTES);
+		direct.order(ByteOrder.nativeOrder());
+		direct.asFloatBuffer().put(vertices);
+		((java.nio.Buffer) direct).position(0);
+		
+		int quad = gl.glGenBuffer();
+		gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, quad);
+		gl.glBufferData(GL20.GL_ARRAY_BUFFER, vertices.length * Float.BYTES, direct.asFloatBuffer(), GL20.GL_STATIC_DRAW);
+		return quad;
+	}
+
+	private void _drawMeshLayer(int buffer, float xCamera, float yCamera, BlockAddress highlightTile, int firstRow, int lastRow, int[] occludingRows)
+	{
+		// The positions and everything else shared are already set up (see _beginLayerLayout()) so only the UVs change.
+		_gl.glUniform2f(_uOffset, xCamera, yCamera);
+		_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+		_gl.glVertexAttribPointer(1, 2, GL20.GL_UNSIGNED_SHORT, true, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, LayerManager.VERTEX_OFFSET_UV0);
+		_gl.glVertexAttribPointer(2, 2, GL20.GL_UNSIGNED_SHORT, true, LayerManager.SINGLE_VERTEX_BUFFER_BYTES, LayerManager.VERTEX_OFFSET_UV1);
+		if (null != highlightTile)
+		{
+			// The shader gives this tile its hue as it draws the layer.
+			_gl.glUniform2f(_uHighlightTile, highlightTile.x(), highlightTile.y());
+		}
+		
+		// The tiles are in row order so the visible rows are a single contiguous range of the index buffer.
+		int firstTile = firstRow * CUBOID_EDGE_TILE_COUNT;
+		int lastTile = (lastRow * CUBOID_EDGE_TILE_COUNT) + (CUBOID_EDGE_TILE_COUNT - 1);
+		if (null == occludingRows)
+		{
+			_drawTileRange(firstTile, lastTile);
+		}
+		else
+		{
+			// Only draw the ranges of tiles which aren't hidden by the layer above, drawing over small gaps instead of
+			// splitting the range.
+			int runStart = -1;
+			int runEnd = -1;
+			for (int row = firstRow; row <= lastRow; ++row)
+			{
+				int visibleTiles = ~occludingRows[row];
+				if (0 != visibleTiles)
+				{
+					int rowBase = row * CUBOID_EDGE_TILE_COUNT;
+					int start = rowBase + Integer.numberOfTrailingZeros(visibleTiles);
+					int end = rowBase + (CUBOID_EDGE_TILE_COUNT - 1) - Integer.numberOfLeadingZeros(visibleTiles);
+					if ((-1 != runStart) && ((start - runEnd - 1) <= OCCLUSION_MERGE_GAP_TILES))
+					{
+						runEnd = end;
+					}
+					else
+					{
+						if (-1 != runStart)
+						{
+							_drawTileRange(runStart, runEnd);
+						}
+						runStart = start;
+						runEnd = end;
+					}
+				}
+			}
+			if (-1 != runStart)
+			{
+				_drawTileRange(runStart, runEnd);
+			}
+		}
+		
+		if (null != highlightTile)
+		{
+			_gl.glUniform2f(_uHighlightTile, -1.0f, -1.0f);
+		}
+	}
+
+	private void _drawMergedLayer(int buffer, int quadCount, float xCamera, float yCamera)
+	{
+		if (quadCount > 0)
+		{
+			// The scale and everything else shared are already set up (see _beginLayerLayout()) but every attribute comes
+			// from this layer's buffer.
+			_gl.glUniform2f(_uOffset, xCamera, yCamera);
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+			_gl.glVertexAttribPointer(0, 2, GL20.GL_UNSIGNED_BYTE, false, LayerManager.MERGED_VERTEX_BYTES, LayerManager.MERGED_OFFSET_POSITION);
+			_gl.glVertexAttribPointer(1, 2, GL20.GL_UNSIGNED_SHORT, true, LayerManager.MERGED_VERTEX_BYTES, LayerManager.MERGED_OFFSET_UV0);
+			_gl.glVertexAttribPointer(2, 2, GL20.GL_UNSIGNED_SHORT, true, LayerManager.MERGED_VERTEX_BYTES, LayerManager.MERGED_OFFSET_UV1);
+			
+			// The quads are packed from the start of the buffer, in the same order as the shared index buffer.
+			_drawTileRange(0, quadCount - 1);
+		}
+	}
+
+	private void _beginLayerLayout()
+	{
+		// The layers of a z-level only differ in their own buffer (or texture), offset, and light texture, so the rest of
+		// the attribute layout and uniforms is set up once, until something else is drawn with the layer program.
+		if (0 != _dataProgram)
+		{
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, _layerQuadBuffer);
+			_gl.glEnableVertexAttribArray(0);
+			_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, 0, 0);
+		}
+		else
+		{
+			if (_isMergedLayers)
+			{
+				// The positions are in tiles so we scale them to the scene.
+				_gl.glUniform1f(_uScale, TILE_EDGE_SIZE);
+				_gl.glUniform1f(_uMergedQuads, 1.0f);
+			}
+			else
+			{
+				// The positions are the same for every layer so they come from the shared mesh.
+				_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, _layerMeshBuffer);
+				_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, 0, 0);
+			}
+			_gl.glUniform1f(_uUseLightTexture, 1.0f);
+			_gl.glEnableVertexAttribArray(0);
+			_gl.glEnableVertexAttribArray(1);
+			_gl.glEnableVertexAttribArray(2);
+			// The light comes from the light texture, not the vertices.
+			_gl.glDisableVertexAttribArray(3);
+			_gl.glDisableVertexAttribArray(4);
+		}
+		_isLayerLayoutReady = true;
+		_frameLayoutSetups += 1;
+	}
+
+	private void _endLayerLayout()
+	{
+		// Restore the uniforms the overlays and entities expect (the attributes are always specified by whatever draws next).
+		if (0 == _dataProgram)
+		{
+			_gl.glUniform1f(_uUseLightTexture, 0.0f);
+			if (_isMergedLayers)
+			{
+				_gl.glUniform1f(_uMergedQuads, 0.0f);
+				_gl.glUniform1f(_uScale, 1.0f);
+			}
+		}
+		_isLayerLayoutReady = false;
+	}
+
+	private void _drawTileRange(int firstTile, int lastTile)
+	{
+		int tileCount = lastTile - firstTile + 1;
+		_gl.glDrawElements(GL20.GL_TRIANGLES, tileCount * INDICES_PER_SQUARE, GL20.GL_UNSIGNED_SHORT, firstTile * INDICES_PER_SQUARE * Short.BYTES);
+		_frameLayerDrawCalls += 1;
+	}
+
+	private void _drawDataLayer(int texture, float xCamera, float yCamera, BlockAddress highlightTile)
+	{
+		// The quad is already set up (see _beginLayerLayout()) so only the offset and data texture change.
+		_gl.glUniform2f(_uDataOffset, xCamera, yCamera);
+		if (null != highlightTile)
+		{
+			_gl.glUniform2f(_uDataHighlightTile, highlightTile.x(), highlightTile.y());
+		}
+		_gl.glActiveTexture(GL20.GL_TEXTURE0 + LayerManager.DATA_TEXTURE_UNIT);
+		_gl.glBindTexture(GL20.GL_TEXTURE_2D, texture);
+		
+		// The quad is the first tile of the shared index buffer.
+		_drawTileRange(0, 0);
+		if (null != highlightTile)
+		{
+			_gl.glUniform2f(_uDataHighlightTile, -1.0f, -1.0f);
+		}
+	}
+
+	private void _drawPlaceholderLayer(float xCamera, float yCamera)
+	{
+		// (LayerManager.getPlaceholderTexture() already bound the texture, and the caller restores the layer program)
+		_gl.glUseProgram(_placeholderProgram);
+		_gl.glUniform2f(_uPlaceholderOffset, xCamera, yCamera);
+		_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, _layerQuadBuffer);
+		_gl.glEnableVertexAttribArray(0);
+		_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, 0, 0);
+		
+		// The quad is the first tile of the shared index buffer.
+		_drawTileRange(0, 0);
+		_framePlaceholders += 1;
+	}
+
 	private void _drawEntity(float xOffset, float yOffset, float scale, EntityType type)
 	{
 		_gl.glActiveTexture(GL20.GL_TEXTURE0);
@@ -535,4 +1270,39 @@ public class RenderSupport
 		_gl.glUniform1i(_uTexture1, 1);
 		_gl.glUniform1f(_uScale, 1.0f);
 	}
+
+
+	/**
+	 * The counts of what was drawn for the layers in a single frame.
+	 * 
+	 * @param layers The number of baked layers drawn.
+	 * @param placeholders The number of placeholders drawn for layers which couldn't be drawn yet.
+	 * @param drawCalls The number of draw calls for those layers and placeholders (not the overlays).
+	 * @param layoutSetups The number of times the attribute layout shared by the layers of a z-level was set up.
+	 */
+	public static record LayerDrawCounters(int layers
+			, int placeholders
+			, int drawCalls
+			, int layoutSetups
+	) {}
+
+	/**
+	 * A snapshot of all of the counters of the layers (see getLayerCounters()).
+	 * 
+	 * @param telemetry The metrics of the background baking pipeline.
+	 * @param bufferPool The counters of the pool of GPU slots for baked layers.
+	 * @param residency The counters of the VRAM budget.
+	 * @param vertices The number of layers uploaded and the vertices they contained.
+	 * @param neighbourInvalidations The number of light textures invalidated by a change in an adjacent cuboid.
+	 * @param skippedBakes The number of changed layers which needed neither a re-bake nor a light patch.
+	 * @param draws The counts of what was drawn for the layers in the last frame.
+	 */
+	public static record LayerCounters(BakeTelemetry.Snapshot telemetry
+			, LayerBufferPool.Counters bufferPool
+			, LayerManager.ResidencyCounters residency
+			, LayerManager.VertexCounters vertices
+			, long neighbourInvalidations
+			, long skippedBakes
+			, LayerDrawCounters draws
+	) {}
 }
@@ -0,0 +1,88 @@
+package com.jeffdisher.october.plains;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jeffdisher.october.utils.Assert;
+
+
+/**
+ * A bounded, lock-free, single-producer/single-consumer queue.  Neither side ever blocks:  offer() fails if the ring is
+ * full and poll() returns null if it is empty.
+ * Note that "single" means one at a time:  Several threads can share a side as long as they serialize their access to
+ * it, themselves.
+ */
+public class SpscRingBuffer<T>
+{
+	private final Object[] _slots;
+	private final int _mask;
+	// The index of the next slot to read (only written by the consumer).
+	private final AtomicLong _head;
+	// The index of the next slot to write (only written by the producer).
+	private final AtomicLong _tail;
+
+	/**
+	 * Creates an empty ring.
+	 * 
+	 * @param capacity The maximum number of elements (must be a power of 2).
+	 */
+	public SpscRingBuffer(int capacity)
+	{
+		Assert.assertTrue((capacity > 0) && (0 == (capacity & (capacity - 1))));
+		_slots = new Object[capacity];
+		_mask = capacity - 1;
+		_head = new AtomicLong(0L);
+		_tail = new AtomicLong(0L);
+	}
+
+	/**
+	 * Adds an element to the ring (only called by the producer).
+	 * 
+	 * @param element The element to add (cannot be null).
+	 * @return True if it was added, false if the ring was full.
+	 */
+	public boolean offer(T element)
+	{
+		Assert.assertTrue(null != element);
+		long tail = _tail.get();
+		boolean didAdd = ((tail - _head.get()) < _slots.length);
+		if (didAdd)
+		{
+			_slots[(int)(tail & _mask)] = element;
+			// The ordered store publishes the slot to the consumer before it can see the new tail.
+			_tail.lazySet(tail + 1L);
+		}
+		return didAdd;
+	}
+
+	/**
+	 * Removes the oldest element from the ring (only called by the consumer).
+	 * 
+	 * @return The element or null if the ring was empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll()
+	{
+		long head = _head.get();
+		T element = null;
+		if (head != _tail.get())
+		{
+			int index = (int)(head & _mask);
+			element = (T) _slots[index];
+			_slots[index] = null;
+			// The ordered store makes sure that we are done with the slot before the producer can reuse it.
+			_head.lazySet(head + 1L);
+		}
+		return element;
+	}
+
+	/**
+	 * Note that this is only exact when called by the consumer or producer (which see only the other side move).  For
+	 * any other thread, it is just an estimate.
+	 * 
+	 * @return The number of elements in the ring.
+	 */
+	public int size()
+	{
+		return (int)(_tail.get() - _head.get());
+	}
+}
@@ -0,0 +1,356 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.aspects.AspectRegistry;
+import com.jeffdisher.october.aspects.Environment;
+import com.jeffdisher.october.data.ColumnHeightMap;
+import com.jeffdisher.october.data.IReadOnlyCuboidData;
+import com.jeffdisher.october.types.BlockAddress;
+import com.jeffdisher.october.types.CuboidAddress;
+
+
+/**
+ * Builds and draws the "surface" view of the world:  One mesh per column of cuboids, with a single tile for the top
+ * block of each of its columns (according to the ColumnHeightMap), shaded by how far it is below the camera and lit by
+ * the sky light plus the block light of the block above it (as the layers are, without the adjacent blocks).  Outdoors,
+ * this shows the terrain many levels down with a single draw per column of cuboids, instead of the 3 blended layers
+ * around the player.
+ * The meshes are built on the main thread, since that is only one lookup per tile, but only a few are rebuilt per frame
+ * so that a burst of changes doesn't stall rendering.
+ */
+public class SurfaceManager
+{
+	/**
+	 * The maximum number of column meshes rebuilt in a single frame.
+	 */
+	public static final int REBUILDS_PER_FRAME = 2;
+	/**
+	 * Each level a tile is below the camera darkens it by this much, down to MINIMUM_SHADE.
+	 */
+	public static final float DEPTH_FADE_PER_LEVEL = 0.04f;
+	public static final float MINIMUM_SHADE = 0.25f;
+	/**
+	 * The brightest LIGHT value of a block, which is full brightness.
+	 */
+	public static final float MAX_LIGHT = 15.0f;
+
+	// Each tile is 4 vertices (bl, br, tr, tl), drawn with the layer index buffer in RenderSupport.
+	private static final int VERTICES_PER_TILE = RenderSupport.VERTICES_PER_SQUARE;
+	// aPosition (2), aTexture0 (2), aZ (1), aBlockLight (1).
+	private static final int FLOATS_PER_VERTEX = 6;
+	private static final int EDGE = LayerManager.CUBOID_EDGE_TILE_COUNT;
+	private static final int TILES_PER_COLUMN = EDGE * EDGE;
+
+	private final GL20 _gl;
+	private final TextureAtlas _textureAtlas;
+	private final short _airItemNumber;
+	private final int _program;
+	private final int _uOffset;
+	private final int _uSceneScale;
+	private final int _uSkyLight;
+	private final int _uCameraZ;
+	private final int _uTexture0;
+	// The scratch space used to build a column mesh before uploading it.
+	private final FloatBuffer _scratch;
+	// Every loaded cuboid, so we can find the top block of each column.
+	private final Map<CuboidAddress, IReadOnlyCuboidData> _cuboids;
+	// The state of each column of cuboids, keyed by the address of its z=0 cuboid.
+	private final Map<CuboidAddress, _Column> _columns;
+	// The same column states, keyed by the address of each of their loaded cuboids, so that drawing doesn't need to
+	// allocate the column address.
+	private final Map<CuboidAddress, _Column> _columnsByCuboid;
+	private int _rebuildsThisFrame;
+	// The last cuboid found by _getCuboid() while rebuilding a column (the tops of a column are usually in one cuboid).
+	private CuboidAddress _lastLookupAddress;
+	private IReadOnlyCuboidData _lastLookupCuboid;
+
+	public SurfaceManager(Environment environment, GL20 gl, TextureAtlas textureAtlas)
+	{
+		_gl = gl;
+		_textureAtlas = textureAtlas;
+		_airItemNumber = environment.special.AIR.item().number();
+		_program = RenderSupport.fullyLinkedProgram(gl
+				, "#version 100\n"
+						+ "attribute vec2 aPosition;\n"
+						+ "attribute vec2 aTexture0;\n"
+						+ "attribute float aZ;\n"
+						+ "attribute float aBlockLight;\n"
+						+ "uniform vec2 uOffset;\n"
+						+ "uniform float uSceneScale;\n"
+						+ "uniform float uCameraZ;\n"
+						+ "varying vec2 vTexture0;\n"
+						+ "varying float vShade;\n"
+						+ "varying float vBlockLight;\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vTexture0 = aTexture0;\n"
+						+ "	vBlockLight = aBlockLight;\n"
+						+ "	vShade = clamp(1.0 - ((uCameraZ - aZ) * " + DEPTH_FADE_PER_LEVEL + "), " + MINIMUM_SHADE + ", 1.0);\n"
+						+ "	gl_Position = vec4(uSceneScale * (aPosition.x + uOffset.x), uSceneScale * (aPosition.y + uOffset.y), 0.0, 1.0);\n"
+						+ "}\n"
+				, "#version 100\n"
+						+ "precision mediump float;\n"
+						+ "uniform sampler2D uTexture0;\n"
+						+ "uniform float uSkyLight;\n"
+						+ "varying vec2 vTexture0;\n"
+						+ "varying float vShade;\n"
+						+ "varying float vBlockLight;\n"
+						+ "void main()\n"
+						+ "{\n"
+						+ "	vec4 tex = texture2D(uTexture0, vTexture0);\n"
+						// The top of every column receives sky light, as well as any block light from the block above it.
+						+ "	float light = clamp(" + LayerManager.MINIMUM_LIGHT + " + vBlockLight + uSkyLight, 0.0, 1.0);\n"
+						+ "	gl_FragColor = vec4(vShade * light * tex.rgb, tex.a);\n"
+						+ "}\n"
+				, new String[] {
+						"aPosition",
+						"aTexture0",
+						"aZ",
+						"aBlockLight",
+				}
+		);
+		_uOffset = gl.glGetUniformLocation(_program, "uOffset");
+		_uSceneScale = gl.glGetUniformLocation(_program, "uSceneScale");
+		_uSkyLight = gl.glGetUniformLocation(_program, "uSkyLight");
+		_uCameraZ = gl.glGetUniformLocation(_program, "uCameraZ");
+		_uTexture0 = gl.glGetUniformLocation(_program, "uTexture0");
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(TILES_PER_COLUMN * VERTICES_PER_TILE * FLOATS_PER_VERTEX * Float.BYTES);
+		direct.order(ByteOrder.nativeOrder());
+		_scratch = direct.asFloatBuffer();
+		_cuboids = new HashMap<>();
+		_columns = new HashMap<>();
+		_columnsByCuboid = new HashMap<>();
+		_rebuildsThisFrame = 0;
+	}
+
+	/**
+	 * Stores a new or updated cuboid, marking its column for a rebuild if its surface may have changed.
+	 * 
+	 * @param cuboid The cuboid data.
+	 * @param heightMap The height map for the cuboid's column.
+	 * @param changedBlocks The blocks which changed since the last update (null if this is a new or replaced cuboid).
+	 */
+	public void storeCuboid(IReadOnlyCuboidData cuboid, ColumnHeightMap heightMap, Set<BlockAddress> changedBlocks)
+	{
+		CuboidAddress address = cuboid.getCuboidAddress();
+		IReadOnlyCuboidData previous = _cuboids.put(address, cuboid);
+		CuboidAddress columnAddress = _columnAddress(address);
+		_Column column = _columns.get(columnAddress);
+		if (null == column)
+		{
+			column = new _Column();
+			_columns.put(columnAddress, column);
+		}
+		if (null == previous)
+		{
+			column.cuboidCount += 1;
+			_columnsByCuboid.put(address, column);
+		}
+		
+		if ((null == changedBlocks) || (null == column.heightMap))
+		{
+			column.isDirty = true;
+		}
+		else
+		{
+			// Only changes to the top block of a column (or which move the top), or to the light of the block above it, are
+			// visible.
+			int baseZ = address.z() * EDGE;
+			for (BlockAddress block : changedBlocks)
+			{
+				int oldHeight = column.heightMap.getHeight(block.x(), block.y());
+				int newHeight = heightMap.getHeight(block.x(), block.y());
+				int blockZ = baseZ + block.z();
+				if ((oldHeight != newHeight) || (blockZ == newHeight) || (blockZ == (newHeight + 1)))
+				{
+					column.isDirty = true;
+				}
+			}
+		}
+		column.heightMap = heightMap;
+	}
+
+	/**
+	 * Removes a cuboid, releasing the mesh of its column if this was the last cuboid loaded in it.
+	 * 
+	 * @param address The address of the cuboid.
+	 */
+	public void removeCuboid(CuboidAddress address)
+	{
+		if (null != _cuboids.remove(address))
+		{
+			CuboidAddress columnAddress = _columnAddress(address);
+			_Column column = _columnsByCuboid.remove(address);
+			column.cuboidCount -= 1;
+			if (0 == column.cuboidCount)
+			{
+				if (0 != column.buffer)
+				{
+					_gl.glDeleteBuffer(column.buffer);
+				}
+				_columns.remove(columnAddress);
+			}
+			else
+			{
+				// The top of some columns may have been in this cuboid.
+				column.isDirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Prepares to draw the surface meshes for a new frame.  This binds the surface program, so the caller must switch
+	 * back to its own program once it is done drawing columns.
+	 * 
+	 * @param sceneScale The zoom of the scene.
+	 * @param skyLightMultiplier The current sky light (0.0-1.0).
+	 * @param cameraZ The z-level of the camera, to shade the surface by depth.
+	 */
+	public void beginFrame(float sceneScale, float skyLightMultiplier, float cameraZ)
+	{
+		_rebuildsThisFrame = 0;
+		_gl.glUseProgram(_program);
+		// This uses the tile atlas which RenderSupport binds to texture unit 0.
+		_gl.glUniform1i(_uTexture0, 0);
+		_gl.glUniform1f(_uSceneScale, sceneScale);
+		_gl.glUniform1f(_uSkyLight, skyLightMultiplier);
+		_gl.glUniform1f(_uCameraZ, cameraZ);
+	}
+
+	/**
+	 * Draws the surface of a single column of cuboids, rebuilding its mesh first if it changed (and there is still room in
+	 * this frame's rebuild budget).  The layer index buffer must be bound.
+	 * 
+	 * @param address The address of any cuboid in the column.
+	 * @param xCamera The x offset of the column, relative to the camera.
+	 * @param yCamera The y offset of the column, relative to the camera.
+	 */
+	public void drawColumn(CuboidAddress address, float xCamera, float yCamera)
+	{
+		_Column column = _columnsByCuboid.get(address);
+		if (null != column)
+		{
+			if (column.isDirty && (_rebuildsThisFrame < REBUILDS_PER_FRAME))
+			{
+				_rebuildColumn(address, column);
+				_rebuildsThisFrame += 1;
+			}
+			if (0 != column.buffer)
+			{
+				_gl.glUniform2f(_uOffset, xCamera, yCamera);
+				_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, column.buffer);
+				_gl.glEnableVertexAttribArray(0);
+				_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 0);
+				_gl.glEnableVertexAttribArray(1);
+				_gl.glVertexAttribPointer(1, 2, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 2 * Float.BYTES);
+				_gl.glEnableVertexAttribArray(2);
+				_gl.glVertexAttribPointer(2, 1, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 4 * Float.BYTES);
+				_gl.glEnableVertexAttribArray(3);
+				_gl.glVertexAttribPointer(3, 1, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 5 * Float.BYTES);
+				_gl.glDrawElements(GL20.GL_TRIANGLES, TILES_PER_COLUMN * RenderSupport.INDICES_PER_SQUARE, GL20.GL_UNSIGNED_SHORT, 0);
+			}
+		}
+	}
+
+
+	private static CuboidAddress _columnAddress(CuboidAddress address)
+	{
+		return new CuboidAddress(address.x(), address.y(), (short)0);
+	}
+
+	private void _rebuildColumn(CuboidAddress address, _Column column)
+	{
+		float tileSize = _textureAtlas.tileCoordinateSize;
+		_lastLookupAddress = null;
+		_lastLookupCuboid = null;
+		for (int y = 0; y < EDGE; ++y)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				// The top block may be in any cuboid of the column (or one which isn't loaded, which we draw as air).
+				int top = column.heightMap.getHeight(x, y);
+				IReadOnlyCuboidData topCuboid = _getCuboid(address, top);
+				short itemNumber = (null != topCuboid)
+						? topCuboid.getData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, Math.floorMod(top, EDGE)))
+						: _airItemNumber
+				;
+				// The block light of the tile is the light of the block above it (which can be in the cuboid above).
+				int above = top + 1;
+				IReadOnlyCuboidData aboveCuboid = _getCuboid(address, above);
+				float blockLight = (null != aboveCuboid)
+						? (aboveCuboid.getData7(AspectRegistry.LIGHT, LayerBaker.getAddress(x, y, Math.floorMod(above, EDGE))) / MAX_LIGHT)
+						: 0.0f
+				;
+				float u = _textureAtlas.tileTextureBaseTable[2 * itemNumber];
+				float v = _textureAtlas.tileTextureBaseTable[(2 * itemNumber) + 1];
+				float left = RenderSupport.TILE_EDGE_SIZE * x;
+				float bottom = RenderSupport.TILE_EDGE_SIZE * y;
+				float right = left + RenderSupport.TILE_EDGE_SIZE;
+				float upper = bottom + RenderSupport.TILE_EDGE_SIZE;
+				float z = (float)top;
+				
+				// NOTE:  We invert the textures coordinates here, as the baked layers do.
+				_putVertex(left, bottom, u, v + tileSize, z, blockLight);
+				_putVertex(right, bottom, u + tileSize, v + tileSize, z, blockLight);
+				_putVertex(right, upper, u + tileSize, v, z, blockLight);
+				_putVertex(left, upper, u, v, z, blockLight);
+			}
+		}
+		((java.nio.Buffer) _scratch).flip();
+		
+		// Every column mesh is the same size so the buffer is only allocated once and then overwritten in place.
+		int size = _scratch.limit() * Float.BYTES;
+		if (0 == column.buffer)
+		{
+			column.buffer = _gl.glGenBuffer();
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, column.buffer);
+			_gl.glBufferData(GL20.GL_ARRAY_BUFFER, size, _scratch, GL20.GL_DYNAMIC_DRAW);
+		}
+		else
+		{
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, column.buffer);
+			_gl.glBufferSubData(GL20.GL_ARRAY_BUFFER, 0, size, _scratch);
+		}
+		((java.nio.Buffer) _scratch).clear();
+		column.isDirty = false;
+	}
+
+	private IReadOnlyCuboidData _getCuboid(CuboidAddress columnAddress, int absoluteZ)
+	{
+		// Returns the loaded cuboid of the column containing absoluteZ (null if it isn't loaded).
+		short cuboidZ = (short)Math.floorDiv(absoluteZ, EDGE);
+		if ((null == _lastLookupAddress) || (cuboidZ != _lastLookupAddress.z()))
+		{
+			_lastLookupAddress = new CuboidAddress(columnAddress.x(), columnAddress.y(), cuboidZ);
+			_lastLookupCuboid = _cuboids.get(_lastLookupAddress);
+		}
+		return _lastLookupCuboid;
+	}
+
+	private void _putVertex(float x, float y, float u, float v, float z, float blockLight)
+	{
+		_scratch.put(x);
+		_scratch.put(y);
+		_scratch.put(u);
+		_scratch.put(v);
+		_scratch.put(z);
+		_scratch.put(blockLight);
+	}
+
+
+	private static class _Column
+	{
+		public ColumnHeightMap heightMap;
+		public int cuboidCount;
+		public int buffer;
+		public boolean isDirty;
+	}
+}
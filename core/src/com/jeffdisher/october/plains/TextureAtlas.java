@@ -55,7 +55,10 @@ public class TextureAtlas
 				(int size) -> new String[size]
 		);
 		int tileTexturesPerRow = _texturesPerRow(primaryNames.length);
-		int tileTexture = _createTextureAtlas(gl, primaryNames, missingTextureName, tileTexturesPerRow, eachTextureEdge);
+		BufferedImage[] tileImages = _loadTextures(primaryNames, missingTextureName, eachTextureEdge);
+		int tileTexture = _createTextureAtlas(gl, tileImages, tileTexturesPerRow, eachTextureEdge);
+		boolean[] tileTextureOpaque = _buildOpaqueTable(tileImages);
+		int[] tileTextureAverageColour = _buildAverageColourTable(tileImages);
 		
 		String[] entityNames = new String[EntityType.values().length];
 		for (EntityType type : EntityType.values())
@@ -65,7 +68,7 @@ public class TextureAtlas
 			entityNames[type.ordinal()] = typeName;
 		}
 		int entityTexturesPerRow = _texturesPerRow(entityNames.length);
-		int entityTexture = _createTextureAtlas(gl, entityNames, missingTextureName, entityTexturesPerRow, eachTextureEdge);
+		int entityTexture = _createTextureAtlas(gl, _loadTextures(entityNames, missingTextureName, eachTextureEdge), entityTexturesPerRow, eachTextureEdge);
 		
 		String[] auxNames = new String[Auxiliary.values().length];
 		for (Auxiliary aux : Auxiliary.values())
@@ -76,9 +79,9 @@ public class TextureAtlas
 			auxNames[aux.ordinal()] = auxName;
 		}
 		int auxTexturesPerRow = _texturesPerRow(auxNames.length);
-		int auxTexture = _createTextureAtlas(gl, auxNames, missingTextureName, auxTexturesPerRow, eachTextureEdge);
+		int auxTexture = _createTextureAtlas(gl, _loadTextures(auxNames, missingTextureName, eachTextureEdge), auxTexturesPerRow, eachTextureEdge);
 		
-		return new TextureAtlas(tileTexture, entityTexture, auxTexture, tileTexturesPerRow, entityTexturesPerRow, auxTexturesPerRow);
+		return new TextureAtlas(tileTexture, entityTexture, auxTexture, primaryNames.length, auxNames.length, tileTexturesPerRow, entityTexturesPerRow, auxTexturesPerRow, tileTextureOpaque, tileTextureAverageColour);
 	}
 
 
@@ -107,17 +110,8 @@ public class TextureAtlas
 		return texturesPerRow;
 	}
 
-	private static int _createTextureAtlas(GL20 gl, String[] imageNames, String missingTextureName, int texturesPerRow, int eachTextureEdge) throws IOException
+	private static BufferedImage[] _loadTextures(String[] imageNames, String missingTextureName, int eachTextureEdge) throws IOException
 	{
-		int width = texturesPerRow * eachTextureEdge;
-		int height = texturesPerRow * eachTextureEdge;
-		
-		// 4 bytes per pixel since we are storing pixels as RGBA.
-		int bytesToAllocate = width * height * 4;
-		ByteBuffer textureBufferData = ByteBuffer.allocateDirect(bytesToAllocate);
-		textureBufferData.order(ByteOrder.nativeOrder());
-		
-		// Load all the images and walk across them to fill the buffer.
 		BufferedImage loadedTextures[] = new BufferedImage[imageNames.length];
 		for (int i = 0; i < imageNames.length; ++i)
 		{
@@ -144,7 +138,20 @@ public class TextureAtlas
 			Assert.assertTrue(loadedTexture.getHeight() == eachTextureEdge);
 			loadedTextures[i] = loadedTexture;
 		}
+		return loadedTextures;
+	}
+
+	private static int _createTextureAtlas(GL20 gl, BufferedImage[] loadedTextures, int texturesPerRow, int eachTextureEdge)
+	{
+		int width = texturesPerRow * eachTextureEdge;
+		int height = texturesPerRow * eachTextureEdge;
 		
+		// 4 bytes per pixel since we are storing pixels as RGBA.
+		int bytesToAllocate = width * height * 4;
+		ByteBuffer textureBufferData = ByteBuffer.allocateDirect(bytesToAllocate);
+		textureBufferData.order(ByteOrder.nativeOrder());
+		
+		// Walk across the images to fill the buffer.
 		for (int y = 0; y < height; ++y)
 		{
 			for (int x = 0; x < width; ++x)
@@ -198,11 +205,27 @@ public class TextureAtlas
 	public final float tileCoordinateSize;
 	public final float entityCoordinateSize;
 	public final float auxCoordinateSize;
-	private final int _tileTexturesPerRow;
+	/**
+	 * The base UV coordinates of every tile texture, indexed by item number:  {u, v} pairs (u at 2n, v at 2n+1).
+	 */
+	public final float[] tileTextureBaseTable;
+	/**
+	 * The base UV coordinates of every auxiliary texture, indexed by Auxiliary ordinal:  {u, v} pairs (u at 2n, v at 2n+1).
+	 */
+	public final float[] auxTextureBaseTable;
+	/**
+	 * Whether or not every pixel of each tile texture is fully opaque, indexed by item number.
+	 */
+	public final boolean[] tileTextureOpaque;
+	/**
+	 * The average colour of each tile texture, indexed by item number, as 0xRRGGBBAA (used to draw a placeholder when a
+	 * layer isn't baked yet).
+	 */
+	public final int[] tileTextureAverageColour;
 	private final int _entityTexturesPerRow;
-	private final int _auxTexturesPerRow;
 
-	private TextureAtlas(int tileTextures, int entityTextures, int auxTextures, int tileTexturesPerRow, int entityTexturesPerRow, int auxTexturesPerRow)
+	// NOTE:  This is only package-private so that tests can build an atlas without loading any textures.
+	TextureAtlas(int tileTextures, int entityTextures, int auxTextures, int tileTextureCount, int auxTextureCount, int tileTexturesPerRow, int entityTexturesPerRow, int auxTexturesPerRow, boolean[] tileTextureOpaque, int[] tileTextureAverageColour)
 	{
 		this.tileTextures = tileTextures;
 		this.entityTextures = entityTextures;
@@ -210,9 +233,11 @@ public class TextureAtlas
 		this.tileCoordinateSize = 1.0f / (float)tileTexturesPerRow;
 		this.entityCoordinateSize = 1.0f / (float)entityTexturesPerRow;
 		this.auxCoordinateSize = 1.0f / (float)auxTexturesPerRow;
-		_tileTexturesPerRow = tileTexturesPerRow;
 		_entityTexturesPerRow = entityTexturesPerRow;
-		_auxTexturesPerRow = auxTexturesPerRow;
+		this.tileTextureBaseTable = _buildBaseTable(tileTextureCount, tileTexturesPerRow, this.tileCoordinateSize);
+		this.auxTextureBaseTable = _buildBaseTable(auxTextureCount, auxTexturesPerRow, this.auxCoordinateSize);
+		this.tileTextureOpaque = tileTextureOpaque;
+		this.tileTextureAverageColour = tileTextureAverageColour;
 	}
 
 	/**
@@ -224,11 +249,7 @@ public class TextureAtlas
 	public float[] baseOfTileTexture(Item item)
 	{
 		int index = item.number();
-		int row = index / _tileTexturesPerRow;
-		int column = index % _tileTexturesPerRow;
-		float u = this.tileCoordinateSize * (float)column;
-		float v = this.tileCoordinateSize * (float)row;
-		return new float[] {u, v};
+		return new float[] {this.tileTextureBaseTable[2 * index], this.tileTextureBaseTable[(2 * index) + 1]};
 	}
 
 	/**
@@ -257,10 +278,77 @@ public class TextureAtlas
 	public float[] baseOfAuxTexture(Auxiliary special)
 	{
 		int index = special.ordinal();
-		int row = index / _auxTexturesPerRow;
-		int column = index % _auxTexturesPerRow;
-		float u = this.auxCoordinateSize * (float)column;
-		float v = this.auxCoordinateSize * (float)row;
-		return new float[] {u, v};
+		return new float[] {this.auxTextureBaseTable[2 * index], this.auxTextureBaseTable[(2 * index) + 1]};
+	}
+
+
+	private static boolean[] _buildOpaqueTable(BufferedImage[] loadedTextures)
+	{
+		boolean[] table = new boolean[loadedTextures.length];
+		for (int i = 0; i < loadedTextures.length; ++i)
+		{
+			BufferedImage loadedTexture = loadedTextures[i];
+			boolean isOpaque = true;
+			for (int y = 0; isOpaque && (y < loadedTexture.getHeight()); ++y)
+			{
+				for (int x = 0; isOpaque && (x < loadedTexture.getWidth()); ++x)
+				{
+					isOpaque = (0xFF000000 == (0xFF000000 & loadedTexture.getRGB(x, y)));
+				}
+			}
+			table[i] = isOpaque;
+		}
+		return table;
+	}
+
+	private static int[] _buildAverageColourTable(BufferedImage[] loadedTextures)
+	{
+		int[] table = new int[loadedTextures.length];
+		for (int i = 0; i < loadedTextures.length; ++i)
+		{
+			BufferedImage loadedTexture = loadedTextures[i];
+			// The colour is weighted by alpha, so that transparent pixels don't darken it, while the alpha is the plain average.
+			long red = 0L;
+			long green = 0L;
+			long blue = 0L;
+			long alpha = 0L;
+			for (int y = 0; y < loadedTexture.getHeight(); ++y)
+			{
+				for (int x = 0; x < loadedTexture.getWidth(); ++x)
+				{
+					int argb = loadedTexture.getRGB(x, y);
+					int pixelAlpha = (argb >>> 24);
+					red += pixelAlpha * ((argb >> 16) & 0xFF);
+					green += pixelAlpha * ((argb >> 8) & 0xFF);
+					blue += pixelAlpha * (argb & 0xFF);
+					alpha += pixelAlpha;
+				}
+			}
+			int pixelCount = loadedTexture.getWidth() * loadedTexture.getHeight();
+			int colour = 0;
+			if (alpha > 0L)
+			{
+				colour = ((int)(red / alpha) << 24)
+						| ((int)(green / alpha) << 16)
+						| ((int)(blue / alpha) << 8)
+						| (int)(alpha / pixelCount)
+				;
+			}
+			table[i] = colour;
+		}
+		return table;
+	}
+
+	private static float[] _buildBaseTable(int textureCount, int texturesPerRow, float coordinateSize)
+	{
+		float[] table = new float[2 * textureCount];
+		for (int index = 0; index < textureCount; ++index)
+		{
+			int row = index / texturesPerRow;
+			int column = index % texturesPerRow;
+			table[2 * index] = coordinateSize * (float)column;
+			table[(2 * index) + 1] = coordinateSize * (float)row;
+		}
+		return table;
 	}
 }
@@ -0,0 +1,132 @@
+package com.jeffdisher.october.plains;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.jeffdisher.october.aspects.Environment;
+
+
+/**
+ * Draws the transient aux textures (crafting activity and damage) over the baked layers, so that these changes, which
+ * arrive every time a block is hit or a crafting operation progresses, don't require re-baking the layer.
+ * There are rarely more than a few of these tiles on screen so they are just rebuilt into a streamed vertex buffer for
+ * every layer drawn, using the same vertex layout (and program) as the entities in RenderSupport.
+ */
+public class TransientOverlay
+{
+	// Each tile is drawn as 2 triangles, without an index buffer, as the entities are.
+	public static final int VERTICES_PER_TILE = 6;
+	// aPosition (2), aTexture0 (2), aTexture1 (2), aBlockLightMultiplier (1), aSkyLightMultiplier (1).
+	public static final int FLOATS_PER_VERTEX = 8;
+	// The number of tiles we initially allocate room for (this grows if a frame needs more).
+	public static final int INITIAL_TILE_CAPACITY = 64;
+
+	private final GL20 _gl;
+	private final TextureAtlas _textureAtlas;
+	// The primary texture is air so that only the aux texture is visible.
+	private final float _airU;
+	private final float _airV;
+	private final int _buffer;
+	private FloatBuffer _vertices;
+	private int _tileCount;
+
+	public TransientOverlay(Environment environment, GL20 gl, TextureAtlas textureAtlas)
+	{
+		_gl = gl;
+		_textureAtlas = textureAtlas;
+		float[] uv0 = textureAtlas.baseOfTileTexture(environment.special.AIR.item());
+		_airU = uv0[0];
+		_airV = uv0[1];
+		_buffer = gl.glGenBuffer();
+		_vertices = _allocate(INITIAL_TILE_CAPACITY);
+		_tileCount = 0;
+	}
+
+	/**
+	 * Adds a tile to be drawn by the next call to draw().
+	 * 
+	 * @param xCamera The x offset of the layer containing the tile, relative to the camera.
+	 * @param yCamera The y offset of the layer containing the tile, relative to the camera.
+	 * @param tile The tile.
+	 */
+	public void addTile(float xCamera, float yCamera, LayerManager.TransientTile tile)
+	{
+		if (_vertices.remaining() < (VERTICES_PER_TILE * FLOATS_PER_VERTEX))
+		{
+			FloatBuffer larger = _allocate(2 * (_vertices.capacity() / (VERTICES_PER_TILE * FLOATS_PER_VERTEX)));
+			((java.nio.Buffer) _vertices).flip();
+			larger.put(_vertices);
+			_vertices = larger;
+		}
+		float left = xCamera + (RenderSupport.TILE_EDGE_SIZE * tile.block().x());
+		float bottom = yCamera + (RenderSupport.TILE_EDGE_SIZE * tile.block().y());
+		float right = left + RenderSupport.TILE_EDGE_SIZE;
+		float top = bottom + RenderSupport.TILE_EDGE_SIZE;
+		float tileSize = _textureAtlas.tileCoordinateSize;
+		float auxSize = _textureAtlas.auxCoordinateSize;
+		float[] uv1 = _textureAtlas.baseOfAuxTexture(tile.aux());
+		// This is the same light the tile was baked with (see LayerBaker).
+		float blockLight = (float)tile.light() / 15.0f;
+		float skyLight = tile.isSky() ? 1.0f : 0.0f;
+		
+		// NOTE:  We invert the textures coordinates here, as the baked layers do.
+		_putVertex(left, bottom, _airU, _airV + tileSize, uv1[0], uv1[1] + auxSize, blockLight, skyLight);
+		_putVertex(right, bottom, _airU + tileSize, _airV + tileSize, uv1[0] + auxSize, uv1[1] + auxSize, blockLight, skyLight);
+		_putVertex(right, top, _airU + tileSize, _airV, uv1[0] + auxSize, uv1[1], blockLight, skyLight);
+		
+		_putVertex(left, bottom, _airU, _airV + tileSize, uv1[0], uv1[1] + auxSize, blockLight, skyLight);
+		_putVertex(right, top, _airU + tileSize, _airV, uv1[0] + auxSize, uv1[1], blockLight, skyLight);
+		_putVertex(left, top, _airU, _airV, uv1[0], uv1[1], blockLight, skyLight);
+		_tileCount += 1;
+	}
+
+	/**
+	 * Draws all the tiles added since the last call, with the currently bound program and atlas textures.  The uOffset
+	 * and uScale uniforms must be set to the origin and 1.0, since the tiles are positioned relative to the camera.
+	 */
+	public void draw()
+	{
+		if (_tileCount > 0)
+		{
+			((java.nio.Buffer) _vertices).flip();
+			_gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, _buffer);
+			_gl.glBufferData(GL20.GL_ARRAY_BUFFER, _vertices.limit() * Float.BYTES, _vertices, GL20.GL_STREAM_DRAW);
+			_gl.glEnableVertexAttribArray(0);
+			_gl.glVertexAttribPointer(0, 2, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 0);
+			_gl.glEnableVertexAttribArray(1);
+			_gl.glVertexAttribPointer(1, 2, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 2 * Float.BYTES);
+			_gl.glEnableVertexAttribArray(2);
+			_gl.glVertexAttribPointer(2, 2, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 4 * Float.BYTES);
+			_gl.glEnableVertexAttribArray(3);
+			_gl.glVertexAttribPointer(3, 1, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 6 * Float.BYTES);
+			_gl.glEnableVertexAttribArray(4);
+			_gl.glVertexAttribPointer(4, 1, GL20.GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 7 * Float.BYTES);
+			_gl.glDrawArrays(GL20.GL_TRIANGLES, 0, _tileCount * VERTICES_PER_TILE);
+			
+			((java.nio.Buffer) _vertices).clear();
+			_tileCount = 0;
+		}
+	}
+
+
+	private static FloatBuffer _allocate(int tileCapacity)
+	{
+		ByteBuffer direct = ByteBuffer.allocateDirect(tileCapacity * VERTICES_PER_TILE * FLOATS_PER_VERTEX * Float.BYTES);
+		direct.order(ByteOrder.nativeOrder());
+		return direct.asFloatBuffer();
+	}
+
+	private void _putVertex(float x, float y, float u0, float v0, float u1, float v1, float blockLight, float skyLight)
+	{
+		_vertices.put(x);
+		_vertices.put(y);
+		_vertices.put(u0);
+		_vertices.put(v0);
+		_vertices.put(u1);
+		_vertices.put(v1);
+		_vertices.put(blockLight);
+		_vertices.put(skyLight);
+	}
+}
@@ -0,0 +1,70 @@
+package com.jeffdisher.october.plains;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.graphics.GL20;
+
+
+public class TestCachingGL20
+{
+	private static final int PROGRAM = 1;
+	private static final int LOCATION = 3;
+
+	@Test
+	public void redundantUniform() throws Throwable
+	{
+		List<String> calls = new ArrayList<>();
+		CachingGL20 gl = new CachingGL20(_recordingGl(calls));
+		gl.glUseProgram(PROGRAM);
+		gl.glUniform1f(LOCATION, 0.5f);
+		gl.glUniform1f(LOCATION, 0.5f);
+		gl.glUniform1f(LOCATION, 0.25f);
+		Assert.assertEquals(List.of("glUseProgram", "glUniform1f", "glUniform1f"), calls);
+		Assert.assertEquals(new CachingGL20.Counters(3L, 1L), gl.getCounters());
+	}
+
+	@Test
+	public void uncachedSetterForgetsLocation() throws Throwable
+	{
+		// Any other setter overwrites the location so the next cached call must be passed through, even with the old value.
+		List<String> calls = new ArrayList<>();
+		CachingGL20 gl = new CachingGL20(_recordingGl(calls));
+		gl.glUseProgram(PROGRAM);
+		gl.glUniform1i(LOCATION, 2);
+		gl.glUniform2i(LOCATION, 5, 6);
+		gl.glUniform1i(LOCATION, 2);
+		gl.glUniform1iv(LOCATION, 1, new int[] {7}, 0);
+		gl.glUniform1i(LOCATION, 2);
+		gl.glUniform1i(LOCATION, 2);
+		Assert.assertEquals(List.of("glUseProgram", "glUniform1i", "glUniform2i", "glUniform1i", "glUniform1iv", "glUniform1i"), calls);
+	}
+
+	@Test
+	public void uncachedArrayForgetsProgram() throws Throwable
+	{
+		// An array can cover locations other than the one given so every location in the program is forgotten.
+		List<String> calls = new ArrayList<>();
+		CachingGL20 gl = new CachingGL20(_recordingGl(calls));
+		gl.glUseProgram(PROGRAM);
+		gl.glUniform1f(LOCATION + 1, 1.0f);
+		gl.glUniformMatrix4fv(LOCATION, 2, false, new float[32], 0);
+		gl.glUniform1f(LOCATION + 1, 1.0f);
+		Assert.assertEquals(List.of("glUseProgram", "glUniform1f", "glUniformMatrix4fv", "glUniform1f"), calls);
+	}
+
+
+	private static GL20 _recordingGl(List<String> calls)
+	{
+		// Every call is recorded and does nothing (nothing we call here returns a value).
+		return (GL20) Proxy.newProxyInstance(GL20.class.getClassLoader(), new Class<?>[] { GL20.class }, (Object proxy, Method method, Object[] args) -> {
+			calls.add(method.getName());
+			return null;
+		});
+	}
+}
@@ -0,0 +1,342 @@
+package com.jeffdisher.october.plains;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jeffdisher.october.aspects.AspectRegistry;
+import com.jeffdisher.october.aspects.Environment;
+import com.jeffdisher.october.data.CuboidData;
+import com.jeffdisher.october.types.Block;
+import com.jeffdisher.october.types.BlockAddress;
+import com.jeffdisher.october.types.CuboidAddress;
+import com.jeffdisher.october.worldgen.CuboidGenerator;
+
+
+public class TestLayerBaker
+{
+	private static final int EDGE = LayerManager.CUBOID_EDGE_TILE_COUNT;
+	// Each pass bakes every layer of the cuboid.  Enough passes for the baking loop to be compiled before we measure.
+	private static final int WARM_UP_PASSES = 500;
+	private static final int MEASURED_PASSES = 100;
+	// How many times we measure an empty window to find the noise of the measurement, itself.
+	private static final int NOISE_SAMPLES = 10;
+	private static Environment ENV;
+
+	@BeforeClass
+	public static void setup()
+	{
+		ENV = Environment.createSharedInstance();
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		Environment.clearSharedInstance();
+	}
+
+	@Test
+	public void steadyStateDoesNotAllocate() throws Throwable
+	{
+		// Baking every layer over and over, into the same buffers, is the steady state of the baking threads so it
+		// shouldn't allocate anything, in any format.
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		CuboidData cuboid = _buildCuboid();
+		TextureAtlas atlas = _buildAtlas();
+		long threadId = Thread.currentThread().getId();
+		for (LayerManager.LayerFormat format : LayerManager.LayerFormat.values())
+		{
+			LayerBaker baker = new LayerBaker(ENV, atlas, format);
+			// The merged format has the largest worst case.
+			ByteBuffer buffer = ByteBuffer.allocateDirect(EDGE * LayerManager.SINGLE_LAYER_MERGED_ROW_BYTES);
+			int[] opaqueRows = new int[EDGE];
+			List<BlockAddress> transientTiles = new ArrayList<>();
+			_bake(baker, cuboid, buffer, opaqueRows, transientTiles, WARM_UP_PASSES);
+			
+			// The measurement can report a few bytes even for an empty window so find the most it reports, here.
+			long noise = 0L;
+			for (int i = 0; i < NOISE_SAMPLES; ++i)
+			{
+				long before = threads.getThreadAllocatedBytes(threadId);
+				_bake(baker, cuboid, buffer, opaqueRows, transientTiles, 0);
+				noise = Math.max(noise, threads.getThreadAllocatedBytes(threadId) - before);
+			}
+			
+			long before = threads.getThreadAllocatedBytes(threadId);
+			_bake(baker, cuboid, buffer, opaqueRows, transientTiles, MEASURED_PASSES);
+			long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+			
+			// Anything beyond the noise of the measurement, itself, was allocated by the bakes.
+			Assert.assertTrue(format + " allocated " + allocated + " bytes (noise is " + noise + " bytes)", allocated <= noise);
+		}
+	}
+
+
+	@Test
+	public void mergeUniformRuns() throws Throwable
+	{
+		// Every run of identical tiles becomes one quad:  A uniform layer is a single quad and a layer of alternating
+		// rows is one quad per row.
+		CuboidData cuboid = CuboidGenerator.createFilledCuboid(new CuboidAddress((short)0, (short)0, (short)0), ENV.blocks.fromItem(ENV.items.getItemById("op.stone")));
+		short dirt = ENV.items.getItemById("op.dirt").number();
+		for (int y = 0; y < EDGE; y += 2)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, 1), dirt);
+			}
+		}
+		LayerBaker baker = new LayerBaker(ENV, _buildAtlas(), LayerManager.LayerFormat.MERGED_MESH);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(EDGE * LayerManager.SINGLE_LAYER_MERGED_ROW_BYTES);
+		
+		baker.bakeRows(cuboid, (byte)0, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+		Assert.assertEquals(1, buffer.position() / LayerManager.MERGED_QUAD_BYTES);
+		Assert.assertArrayEquals(new int[] { 0, 0, EDGE, EDGE }, _quadBounds(buffer, 0));
+		
+		baker.bakeRows(cuboid, (byte)1, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+		Assert.assertEquals(EDGE, buffer.position() / LayerManager.MERGED_QUAD_BYTES);
+		for (int i = 0; i < EDGE; ++i)
+		{
+			Assert.assertArrayEquals(new int[] { 0, i, EDGE, i + 1 }, _quadBounds(buffer, i));
+		}
+	}
+
+	@Test
+	public void mergeReproducesCoverage() throws Throwable
+	{
+		// A mixed layer, merged, must cover exactly the tiles which aren't air, each exactly once, with the same textures
+		// the unmerged VERTEX_MESH format gives that tile.
+		short[] items = new short[] {
+				ENV.special.AIR.item().number(),
+				ENV.items.getItemById("op.stone").number(),
+				ENV.items.getItemById("op.dirt").number(),
+				ENV.items.getItemById("op.log").number(),
+		};
+		CuboidData cuboid = CuboidGenerator.createFilledCuboid(new CuboidAddress((short)0, (short)0, (short)0), ENV.special.AIR);
+		Random random = new Random(1L);
+		for (int y = 0; y < EDGE; ++y)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				// Favour long runs, so that there is plenty to merge, but still mix in single tiles.
+				short item = ((x > 0) && (random.nextInt(4) > 0))
+						? cuboid.getData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x - 1, y, 0))
+						: items[random.nextInt(items.length)]
+				;
+				cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, 0), item);
+			}
+		}
+		TextureAtlas atlas = _buildAtlas();
+		ByteBuffer tiles = ByteBuffer.allocateDirect(LayerManager.SINGLE_LAYER_TOTAL_BUFFER_BYTES);
+		new LayerBaker(ENV, atlas, LayerManager.LayerFormat.VERTEX_MESH).bakeRows(cuboid, (byte)0, (byte)0, (byte)(EDGE - 1), tiles, new int[EDGE], new ArrayList<>());
+		ByteBuffer merged = ByteBuffer.allocateDirect(EDGE * LayerManager.SINGLE_LAYER_MERGED_ROW_BYTES);
+		new LayerBaker(ENV, atlas, LayerManager.LayerFormat.MERGED_MESH).bakeRows(cuboid, (byte)0, (byte)0, (byte)(EDGE - 1), merged, new int[EDGE], new ArrayList<>());
+		
+		int quadCount = merged.position() / LayerManager.MERGED_QUAD_BYTES;
+		Assert.assertTrue(quadCount < (EDGE * EDGE));
+		long[] covered = new long[EDGE * EDGE];
+		boolean[] isCovered = new boolean[EDGE * EDGE];
+		for (int i = 0; i < quadCount; ++i)
+		{
+			int[] bounds = _quadBounds(merged, i);
+			long textures = _readTextures(merged, (i * LayerManager.MERGED_QUAD_BYTES) + LayerManager.MERGED_OFFSET_UV0);
+			for (int y = bounds[1]; y < bounds[3]; ++y)
+			{
+				for (int x = bounds[0]; x < bounds[2]; ++x)
+				{
+					int index = (y * EDGE) + x;
+					Assert.assertFalse(isCovered[index]);
+					isCovered[index] = true;
+					covered[index] = textures;
+				}
+			}
+		}
+		for (int y = 0; y < EDGE; ++y)
+		{
+			for (int x = 0; x < EDGE; ++x)
+			{
+				int index = (y * EDGE) + x;
+				boolean isAir = (items[0] == cuboid.getData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, 0)));
+				Assert.assertEquals(!isAir, isCovered[index]);
+				if (!isAir)
+				{
+					// The top-left vertex of the tile has the top-left of its textures, as every corner of a merged quad does.
+					int topLeft = ((index * RenderSupport.VERTICES_PER_SQUARE) + 3) * LayerManager.SINGLE_VERTEX_BUFFER_BYTES;
+					Assert.assertEquals(_readTextures(tiles, topLeft + LayerManager.VERTEX_OFFSET_UV0), covered[index]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void uniformSignatures() throws Throwable
+	{
+		// Layers of one item share a signature, by item, across cuboids (the air signature is how LayerManager skips air
+		// layers) while any mixed layer is NOT_UNIFORM, in every format.
+		CuboidData cuboid = _buildCuboid();
+		CuboidData otherStone = CuboidGenerator.createFilledCuboid(new CuboidAddress((short)1, (short)0, (short)0), ENV.blocks.fromItem(ENV.items.getItemById("op.stone")));
+		TextureAtlas atlas = _buildAtlas();
+		for (LayerManager.LayerFormat format : LayerManager.LayerFormat.values())
+		{
+			LayerBaker baker = new LayerBaker(ENV, atlas, format);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(EDGE * LayerManager.SINGLE_LAYER_MERGED_ROW_BYTES);
+			int stone = baker.bakeRows(cuboid, (byte)0, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+			int stripes = baker.bakeRows(cuboid, (byte)1, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+			int air = baker.bakeRows(cuboid, (byte)2, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+			int checkerboard = baker.bakeRows(cuboid, (byte)3, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+			int otherStoneLayer = baker.bakeRows(otherStone, (byte)7, (byte)0, (byte)(EDGE - 1), buffer, new int[EDGE], new ArrayList<>());
+			
+			Assert.assertEquals(ENV.items.getItemById("op.stone").number(), LayerBaker.uniformItem(stone));
+			Assert.assertEquals(ENV.special.AIR.item().number(), LayerBaker.uniformItem(air));
+			Assert.assertEquals(stone, otherStoneLayer);
+			Assert.assertEquals(LayerBaker.NOT_UNIFORM, stripes);
+			Assert.assertEquals(LayerBaker.NOT_UNIFORM, checkerboard);
+		}
+	}
+
+	@Test
+	public void opaqueRowMask() throws Throwable
+	{
+		// Only solid tiles with an opaque texture are opaque, in every format, and a partial bake only writes its own rows.
+		CuboidData cuboid = CuboidGenerator.createFilledCuboid(new CuboidAddress((short)0, (short)0, (short)0), ENV.blocks.fromItem(ENV.items.getItemById("op.stone")));
+		short air = ENV.special.AIR.item().number();
+		short dirt = ENV.items.getItemById("op.dirt").number();
+		cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(5, 3, 0), air);
+		cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(0, 7, 0), dirt);
+		cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(EDGE - 1, 7, 0), dirt);
+		for (int x = 0; x < EDGE; ++x)
+		{
+			cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, 9, 0), air);
+		}
+		// Dirt gets a texture with transparent pixels (this must be set before the baker reads it).
+		TextureAtlas atlas = _buildAtlas();
+		atlas.tileTextureOpaque[dirt] = false;
+		int[] expected = new int[EDGE];
+		for (int y = 0; y < EDGE; ++y)
+		{
+			expected[y] = -1;
+		}
+		expected[3] = ~(1 << 5);
+		expected[7] = ~(1 | (1 << (EDGE - 1)));
+		expected[9] = 0;
+		for (LayerManager.LayerFormat format : LayerManager.LayerFormat.values())
+		{
+			LayerBaker baker = new LayerBaker(ENV, atlas, format);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(EDGE * LayerManager.SINGLE_LAYER_MERGED_ROW_BYTES);
+			int[] opaqueRows = new int[EDGE];
+			baker.bakeRows(cuboid, (byte)0, (byte)0, (byte)(EDGE - 1), buffer, opaqueRows, new ArrayList<>());
+			Assert.assertArrayEquals(format.toString(), expected, opaqueRows);
+		}
+		
+		int[] partialRows = new int[EDGE];
+		new LayerBaker(ENV, atlas, LayerManager.LayerFormat.VERTEX_MESH).bakeRows(cuboid, (byte)0, (byte)3, (byte)7, ByteBuffer.allocateDirect(LayerManager.SINGLE_LAYER_TOTAL_BUFFER_BYTES), partialRows, new ArrayList<>());
+		for (int y = 0; y < EDGE; ++y)
+		{
+			int expectedRow = ((y >= 3) && (y <= 7))
+					? expected[y]
+					: 0
+			;
+			Assert.assertEquals(expectedRow, partialRows[y]);
+		}
+	}
+
+
+	private static void _bake(LayerBaker baker, CuboidData cuboid, ByteBuffer buffer, int[] opaqueRows, List<BlockAddress> transientTiles, int passes)
+	{
+		for (int i = 0; i < passes; ++i)
+		{
+			for (int z = 0; z < EDGE; ++z)
+			{
+				transientTiles.clear();
+				baker.bakeRows(cuboid, (byte)z, (byte)0, (byte)(EDGE - 1), buffer, opaqueRows, transientTiles);
+			}
+		}
+	}
+
+	private static int[] _quadBounds(ByteBuffer merged, int quad)
+	{
+		// The first vertex is the bottom-left corner and the third is the top-right (see the shared index buffer).
+		int base = quad * LayerManager.MERGED_QUAD_BYTES;
+		int opposite = base + (2 * LayerManager.MERGED_VERTEX_BYTES);
+		return new int[] {
+				Byte.toUnsignedInt(merged.get(base + LayerManager.MERGED_OFFSET_POSITION)),
+				Byte.toUnsignedInt(merged.get(base + LayerManager.MERGED_OFFSET_POSITION + 1)),
+				Byte.toUnsignedInt(merged.get(opposite + LayerManager.MERGED_OFFSET_POSITION)),
+				Byte.toUnsignedInt(merged.get(opposite + LayerManager.MERGED_OFFSET_POSITION + 1)),
+		};
+	}
+
+	private static long _readTextures(ByteBuffer buffer, int offset)
+	{
+		// The 4 shorts of the main and secondary texture coordinates, packed together so they can be compared at once.
+		long textures = 0L;
+		for (int i = 0; i < 4; ++i)
+		{
+			textures = (textures << 16) | Short.toUnsignedLong(buffer.getShort(offset + (i * Short.BYTES)));
+		}
+		return textures;
+	}
+
+	private static CuboidData _buildCuboid()
+	{
+		// A stone cuboid with a different pattern on each layer, so that the bakes cover uniform layers (stone and air) as
+		// well as mixed layers with several runs to merge.
+		Block stone = ENV.blocks.fromItem(ENV.items.getItemById("op.stone"));
+		short stoneNumber = stone.item().number();
+		short dirt = ENV.items.getItemById("op.dirt").number();
+		short air = ENV.special.AIR.item().number();
+		CuboidData cuboid = CuboidGenerator.createFilledCuboid(new CuboidAddress((short)0, (short)0, (short)0), stone);
+		for (int z = 0; z < EDGE; ++z)
+		{
+			for (int y = 0; y < EDGE; ++y)
+			{
+				for (int x = 0; x < EDGE; ++x)
+				{
+					short block;
+					switch (z % 4)
+					{
+					case 0:
+						block = stoneNumber;
+						break;
+					case 1:
+						// Stripes of dirt, broken by air.
+						block = (0 == (y % 3)) ? ((0 == (x % 5)) ? air : dirt) : stoneNumber;
+						break;
+					case 2:
+						block = air;
+						break;
+					default:
+						// A checkerboard, which merges as poorly as possible.
+						block = (0 == ((x + y) % 2)) ? dirt : air;
+						break;
+					}
+					cuboid.setData15(AspectRegistry.BLOCK, LayerBaker.getAddress(x, y, z), block);
+				}
+			}
+		}
+		return cuboid;
+	}
+
+	private static TextureAtlas _buildAtlas()
+	{
+		// The baker only needs the coordinate tables and opacity, not any loaded textures.
+		int itemCount = ENV.items.ITEMS_BY_TYPE.length;
+		int auxCount = TextureAtlas.Auxiliary.values().length;
+		boolean[] opaque = new boolean[itemCount];
+		for (int i = 0; i < itemCount; ++i)
+		{
+			opaque[i] = true;
+		}
+		return new TextureAtlas(0, 0, 0, itemCount, auxCount, 16, 16, 16, opaque, new int[itemCount]);
+	}
+}
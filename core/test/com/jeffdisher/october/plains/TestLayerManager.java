@@ -0,0 +1,40 @@
+package com.jeffdisher.october.plains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class TestLayerManager
+{
+	@Test
+	public void evictionOrder() throws Throwable
+	{
+		// Each candidate is { lastDrawnFrame, zDistance }, in the order they must be evicted:  Least-recently-drawn first
+		// (never drawn is frame 0) and then furthest from the focus z-level.
+		long[][] expected = new long[][] {
+				{ 0L, 40L },
+				{ 0L, 3L },
+				{ 5L, 3L },
+				{ 90L, Integer.MAX_VALUE },
+				{ 90L, 10L },
+				{ 90L, 4L },
+				{ 120L, 3L },
+		};
+		List<long[]> candidates = new ArrayList<>(List.of(expected));
+		Collections.shuffle(candidates, new Random(1L));
+		candidates.sort((long[] one, long[] two) -> LayerManager.compareForEviction(one[0], (int)one[1], two[0], (int)two[1]));
+		Assert.assertArrayEquals(expected, candidates.toArray(new long[0][]));
+	}
+
+	@Test
+	public void evictionTie() throws Throwable
+	{
+		Assert.assertEquals(0, LayerManager.compareForEviction(7L, 3, 7L, 3));
+		Assert.assertTrue(LayerManager.compareForEviction(Long.MIN_VALUE, 3, Long.MAX_VALUE, 3) < 0);
+	}
+}
@@ -0,0 +1,86 @@
+package com.jeffdisher.october.plains;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.jeffdisher.october.types.AbsoluteLocation;
+import com.jeffdisher.october.types.EntityLocation;
+
+
+public class TestRenderSupport
+{
+	@Test
+	public void predictStationary() throws Throwable
+	{
+		AbsoluteLocation predicted = RenderSupport.predictLocation(new EntityLocation(10.5f, -3.5f, 7.0f), new EntityLocation(0.0f, 0.0f, 0.0f));
+		Assert.assertEquals(new AbsoluteLocation(10, -4, 7), predicted);
+	}
+
+	@Test
+	public void predictMoving() throws Throwable
+	{
+		// The prediction is PREFETCH_LOOKAHEAD_SECONDS along the velocity, rounded down to the block (even below 0).
+		EntityLocation velocity = new EntityLocation(2.5f / RenderSupport.PREFETCH_LOOKAHEAD_SECONDS, -1.0f / RenderSupport.PREFETCH_LOOKAHEAD_SECONDS, -40.0f / RenderSupport.PREFETCH_LOOKAHEAD_SECONDS);
+		AbsoluteLocation predicted = RenderSupport.predictLocation(new EntityLocation(10.25f, 0.5f, 7.0f), velocity);
+		Assert.assertEquals(new AbsoluteLocation(12, -1, -33), predicted);
+	}
+
+	@Test
+	public void visibleRadiusReachesWindowEdge() throws Throwable
+	{
+		// The visible range must cover every tile reaching into the window, and no more, on both sides, at every scene
+		// scale and wherever the entity is within its tile.
+		for (float sceneScale : new float[] { 1.0f, 4.0f, 0.5f })
+		{
+			float radius = RenderSupport.visibleTileRadius(sceneScale);
+			for (float x : new float[] { 0.0f, 100.3f, -7.8f })
+			{
+				int maxVisible = (int)Math.floor(x + radius);
+				int minVisible = (int)Math.floor(x - radius);
+				Assert.assertTrue(_toClip(sceneScale, maxVisible - x) <= 1.0f);
+				Assert.assertTrue(_toClip(sceneScale, maxVisible + 1 - x) >= 1.0f);
+				Assert.assertTrue(_toClip(sceneScale, minVisible + 1 - x) > -1.0f);
+				Assert.assertTrue(_toClip(sceneScale, minVisible - x) <= -1.0f);
+			}
+		}
+	}
+
+	@Test
+	public void cuboidVisibleAtEdges() throws Throwable
+	{
+		// A cuboid is visible if only its last or first tile is in the visible rectangle, on either axis.
+		int edge = RenderSupport.CUBOID_EDGE_TILE_COUNT;
+		Assert.assertTrue(RenderSupport.isCuboidVisible(0, 0, edge - 1, 100, -100, 100));
+		Assert.assertFalse(RenderSupport.isCuboidVisible(0, 0, edge, 100, -100, 100));
+		Assert.assertTrue(RenderSupport.isCuboidVisible(0, 0, -100, 0, -100, 100));
+		Assert.assertFalse(RenderSupport.isCuboidVisible(0, 0, -100, -1, -100, 100));
+		Assert.assertTrue(RenderSupport.isCuboidVisible(-edge, edge, -100, 100, (2 * edge) - 1, 100));
+		Assert.assertFalse(RenderSupport.isCuboidVisible(-edge, edge, -100, 100, 2 * edge, 100));
+		Assert.assertTrue(RenderSupport.isCuboidVisible(-edge, edge, -100, 100, -100, edge));
+		Assert.assertFalse(RenderSupport.isCuboidVisible(-edge, edge, -100, 100, -100, edge - 1));
+	}
+
+	@Test
+	public void occlusionNeedsEveryVisibleRow() throws Throwable
+	{
+		// A layer is only hidden if every tile of the visible rows above it is opaque (other rows don't matter).
+		int[] opaqueRows = new int[RenderSupport.CUBOID_EDGE_TILE_COUNT];
+		for (int y = 0; y < opaqueRows.length; ++y)
+		{
+			opaqueRows[y] = -1;
+		}
+		Assert.assertTrue(RenderSupport.isFullyOccluded(opaqueRows, 0, opaqueRows.length - 1));
+		opaqueRows[10] = ~(1 << 31);
+		Assert.assertFalse(RenderSupport.isFullyOccluded(opaqueRows, 0, opaqueRows.length - 1));
+		Assert.assertFalse(RenderSupport.isFullyOccluded(opaqueRows, 10, 10));
+		Assert.assertTrue(RenderSupport.isFullyOccluded(opaqueRows, 0, 9));
+		Assert.assertTrue(RenderSupport.isFullyOccluded(opaqueRows, 11, opaqueRows.length - 1));
+	}
+
+
+	private static float _toClip(float sceneScale, float tilesFromCentre)
+	{
+		// This is what the layer vertex shaders do with the tile offset from the entity.
+		return sceneScale * RenderSupport.TILE_EDGE_SIZE * tilesFromCentre;
+	}
+}
@@ -0,0 +1,236 @@
+package com.jeffdisher.october.plains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class TestSpscRingBuffer
+{
+	// Enough elements to wrap the small rings many thousands of times.  Note that the spinning threads yield, rather
+	// than busy-wait, so that this still makes progress on a single core.
+	private static final int CHURN_COUNT = 200000;
+
+	@Test
+	public void empty() throws Throwable
+	{
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+		Assert.assertNull(ring.poll());
+		Assert.assertEquals(0, ring.size());
+	}
+
+	@Test
+	public void fillAndDrain() throws Throwable
+	{
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+		for (int i = 0; i < 4; ++i)
+		{
+			Assert.assertTrue(ring.offer(i));
+		}
+		Assert.assertFalse(ring.offer(4));
+		Assert.assertEquals(4, ring.size());
+		for (int i = 0; i < 4; ++i)
+		{
+			Assert.assertEquals(Integer.valueOf(i), ring.poll());
+		}
+		Assert.assertNull(ring.poll());
+	}
+
+	@Test
+	public void wrapAround() throws Throwable
+	{
+		// Keep the ring partially full while cycling through it many times, on one thread.
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(8);
+		int next = 0;
+		for (int i = 0; i < 5; ++i)
+		{
+			Assert.assertTrue(ring.offer(next));
+			next += 1;
+		}
+		for (int expected = 0; expected < 1000; ++expected)
+		{
+			Assert.assertEquals(Integer.valueOf(expected), ring.poll());
+			Assert.assertTrue(ring.offer(next));
+			next += 1;
+			Assert.assertEquals(5, ring.size());
+		}
+	}
+
+	@Test
+	public void churnSingleProducerSingleConsumer() throws Throwable
+	{
+		// A tiny ring so that the two threads are constantly racing on a full or empty ring, across wraparound.
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread producer = _start(failure, () -> {
+			for (int i = 0; i < CHURN_COUNT; ++i)
+			{
+				while (!ring.offer(i) && (null == failure.get()))
+				{
+					Thread.yield();
+				}
+			}
+		});
+		// Everything must arrive exactly once and in order.
+		for (int expected = 0; expected < CHURN_COUNT; ++expected)
+		{
+			Integer element = ring.poll();
+			while ((null == element) && (null == failure.get()))
+			{
+				Thread.yield();
+				element = ring.poll();
+			}
+			Assert.assertNull(failure.get());
+			Assert.assertEquals(expected, element.intValue());
+		}
+		producer.join();
+		Assert.assertNull(failure.get());
+		Assert.assertNull(ring.poll());
+	}
+
+	@Test
+	public void churnSharedConsumers() throws Throwable
+	{
+		// This is how LayerManager uses _requestInbox and _scratchGraphicsBuffers:  One producer and several consumer
+		// threads taking turns under a common lock.
+		int consumerCount = 4;
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(8);
+		Object consumerLock = new Object();
+		boolean[] seen = new boolean[CHURN_COUNT];
+		int[] consumedCount = new int[1];
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> consumers = new ArrayList<>();
+		for (int i = 0; i < consumerCount; ++i)
+		{
+			consumers.add(_start(failure, () -> {
+				// Since the consumers are serialized, each one must still see increasing values.
+				int last = -1;
+				boolean keepRunning = true;
+				while (keepRunning)
+				{
+					Integer element;
+					synchronized (consumerLock)
+					{
+						element = ring.poll();
+						if (null != element)
+						{
+							int value = element.intValue();
+							Assert.assertTrue(value > last);
+							Assert.assertFalse(seen[value]);
+							seen[value] = true;
+							last = value;
+							consumedCount[0] += 1;
+						}
+						keepRunning = (consumedCount[0] < CHURN_COUNT) && (null == failure.get());
+					}
+					if (null == element)
+					{
+						Thread.yield();
+					}
+				}
+			}));
+		}
+		for (int i = 0; (i < CHURN_COUNT) && (null == failure.get()); ++i)
+		{
+			while (!ring.offer(i) && (null == failure.get()))
+			{
+				Thread.yield();
+			}
+		}
+		for (Thread consumer : consumers)
+		{
+			consumer.join();
+		}
+		Assert.assertNull(failure.get());
+		synchronized (consumerLock)
+		{
+			Assert.assertEquals(CHURN_COUNT, consumedCount[0]);
+			for (int i = 0; i < CHURN_COUNT; ++i)
+			{
+				Assert.assertTrue(seen[i]);
+			}
+		}
+		Assert.assertNull(ring.poll());
+	}
+
+	@Test
+	public void churnSharedProducers() throws Throwable
+	{
+		// This is how LayerManager uses _responses:  Several producer threads taking turns under a common lock and one
+		// consumer.
+		int producerCount = 4;
+		int perProducer = CHURN_COUNT / producerCount;
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(8);
+		Object producerLock = new Object();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> producers = new ArrayList<>();
+		for (int i = 0; i < producerCount; ++i)
+		{
+			int producer = i;
+			producers.add(_start(failure, () -> {
+				for (int sequence = 0; sequence < perProducer; ++sequence)
+				{
+					// Each element is tagged with its producer so the consumer can check each one's order.
+					int value = (sequence * producerCount) + producer;
+					boolean didAdd = false;
+					while (!didAdd && (null == failure.get()))
+					{
+						synchronized (producerLock)
+						{
+							didAdd = ring.offer(value);
+						}
+						if (!didAdd)
+						{
+							Thread.yield();
+						}
+					}
+				}
+			}));
+		}
+		int[] nextByProducer = new int[producerCount];
+		for (int i = 0; i < (perProducer * producerCount); ++i)
+		{
+			Integer element = ring.poll();
+			while ((null == element) && (null == failure.get()))
+			{
+				Thread.yield();
+				element = ring.poll();
+			}
+			Assert.assertNull(failure.get());
+			int value = element.intValue();
+			int producer = value % producerCount;
+			Assert.assertEquals(nextByProducer[producer], value / producerCount);
+			nextByProducer[producer] += 1;
+		}
+		for (Thread producer : producers)
+		{
+			producer.join();
+		}
+		Assert.assertNull(failure.get());
+		for (int i = 0; i < producerCount; ++i)
+		{
+			Assert.assertEquals(perProducer, nextByProducer[i]);
+		}
+		Assert.assertNull(ring.poll());
+	}
+
+
+	private static Thread _start(AtomicReference<Throwable> failure, Runnable body)
+	{
+		Thread thread = new Thread(() -> {
+			try
+			{
+				body.run();
+			}
+			catch (Throwable t)
+			{
+				failure.compareAndSet(null, t);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+}